@@ -0,0 +1,57 @@
+package com.gfttraining.benchmark;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import com.gfttraining.entity.CartEntity;
+import com.gfttraining.entity.FavoriteProduct;
+import com.gfttraining.entity.ProductEntity;
+import com.gfttraining.entity.UserEntity;
+
+/**
+ * Fixtures shared by the benchmarks, seeded so every run scores the same data.
+ */
+final class BenchmarkData {
+
+	private BenchmarkData() {
+	}
+
+	static List<CartEntity> carts(int cartCount, int productsPerCart) {
+
+		Random random = new Random(42);
+		List<CartEntity> carts = new ArrayList<>(cartCount);
+		for (int c = 0; c < cartCount; c++) {
+			CartEntity cart = new CartEntity();
+			cart.setId(new UUID(c, c));
+			cart.setUserId(1);
+			cart.setStatus("SUBMITTED");
+
+			List<ProductEntity> products = new ArrayList<>(productsPerCart);
+			for (int p = 0; p < productsPerCart; p++) {
+				// prices between 1.00 and 150.00, so every fidelity tier is hit
+				BigDecimal price = BigDecimal.valueOf(100 + random.nextInt(14900), 2);
+				int quantity = 1 + random.nextInt(3);
+				products.add(new ProductEntity(p, p, "product " + p, cart.getId(), "description", price, quantity,
+						price.multiply(BigDecimal.valueOf(quantity))));
+			}
+			cart.setProducts(products);
+			carts.add(cart);
+		}
+		return carts;
+	}
+
+	static UserEntity user(int favorites) {
+
+		UserEntity user = new UserEntity("pepe@pepe.com", "Pepito", "Perez", "calle falsa", "SPAIN");
+		user.setId(1);
+		user.setPaymentmethod("VISA");
+		for (int i = 0; i < favorites; i++) {
+			user.addFavorite(new FavoriteProduct(i, 1, i));
+		}
+		return user;
+	}
+
+}
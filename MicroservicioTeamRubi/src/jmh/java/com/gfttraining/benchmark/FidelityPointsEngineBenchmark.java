@@ -0,0 +1,50 @@
+package com.gfttraining.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.gfttraining.DTO.LoyaltySummaryDTO;
+import com.gfttraining.entity.CartEntity;
+import com.gfttraining.service.FidelityPointsEngine;
+import com.gfttraining.service.FidelityProperties;
+
+/**
+ * Average spent and fidelity points, from a first-time buyer to a customer
+ * with thousands of historical products.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FidelityPointsEngineBenchmark {
+
+	@Param({ "1", "10", "100" })
+	private int carts;
+
+	@Param({ "5", "50" })
+	private int productsPerCart;
+
+	private List<CartEntity> history;
+
+	private FidelityPointsEngine fidelityPointsEngine;
+
+	@Setup
+	public void setUp() {
+		history = BenchmarkData.carts(carts, productsPerCart);
+		fidelityPointsEngine = new FidelityPointsEngine(new FidelityProperties());
+	}
+
+	@Benchmark
+	public LoyaltySummaryDTO score() {
+		return fidelityPointsEngine.score(history);
+	}
+
+}
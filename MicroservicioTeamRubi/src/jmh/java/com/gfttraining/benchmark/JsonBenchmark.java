@@ -0,0 +1,58 @@
+package com.gfttraining.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gfttraining.DTO.Mapper;
+import com.gfttraining.DTO.UserEntityDTO;
+import com.gfttraining.DTO.UserMapperImpl;
+import com.gfttraining.entity.UserEntity;
+
+/**
+ * Jackson serialization of the bodies the user endpoints return, with the
+ * same ObjectMapper defaults Spring MVC uses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonBenchmark {
+
+	@Param({ "0", "20" })
+	private int favorites;
+
+	private ObjectMapper objectMapper;
+
+	private UserEntity user;
+
+	private UserEntityDTO userDTO;
+
+	@Setup
+	public void setUp() {
+		objectMapper = Jackson2ObjectMapperBuilder.json().build();
+		user = BenchmarkData.user(favorites);
+		userDTO = new Mapper(new UserMapperImpl()).toUserWithAvgSpentAndFidelityPoints(user, new BigDecimal("53.88"), 14);
+	}
+
+	@Benchmark
+	public byte[] writeUserEntity() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(user);
+	}
+
+	@Benchmark
+	public byte[] writeUserEntityDTO() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(userDTO);
+	}
+
+}
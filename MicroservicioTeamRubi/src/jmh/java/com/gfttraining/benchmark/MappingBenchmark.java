@@ -0,0 +1,46 @@
+package com.gfttraining.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.gfttraining.DTO.Mapper;
+import com.gfttraining.DTO.UserEntityDTO;
+import com.gfttraining.DTO.UserMapperImpl;
+import com.gfttraining.entity.UserEntity;
+
+/**
+ * The entity to DTO mapping behind GET /users/{id}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MappingBenchmark {
+
+	@Param({ "0", "20" })
+	private int favorites;
+
+	private UserEntity user;
+
+	private Mapper mapper;
+
+	@Setup
+	public void setUp() {
+		user = BenchmarkData.user(favorites);
+		mapper = new Mapper(new UserMapperImpl());
+	}
+
+	@Benchmark
+	public UserEntityDTO toUserWithAvgSpentAndFidelityPoints() {
+		return mapper.toUserWithAvgSpentAndFidelityPoints(user, BigDecimal.TEN, 3);
+	}
+
+}
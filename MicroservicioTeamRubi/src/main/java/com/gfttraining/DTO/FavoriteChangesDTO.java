@@ -0,0 +1,20 @@
+package com.gfttraining.DTO;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class FavoriteChangesDTO {
+
+	private int userId;
+	// product ids added or removed by the request
+	private List<Integer> changed;
+	// product ids that already were, or already were not, favorites
+	private List<Integer> unchanged;
+
+}
@@ -0,0 +1,26 @@
+package com.gfttraining.DTO;
+
+import java.time.LocalDateTime;
+
+import com.gfttraining.service.ImportJobState;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImportJobDTO {
+
+	private String id;
+	private ImportJobState state;
+	private boolean cancelRequested;
+	private long processed;
+	private LocalDateTime submittedAt;
+	private LocalDateTime startedAt;
+	private LocalDateTime finishedAt;
+	private String failure;
+	private ImportReportDTO report;
+
+}
@@ -0,0 +1,26 @@
+package com.gfttraining.DTO;
+
+import java.util.List;
+
+import com.gfttraining.service.ImportMode;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImportReportDTO {
+
+	private ImportMode mode;
+	private long imported;
+	private long inserted;
+	private long updated;
+	private long deleted;
+	private long rejected;
+	private long elapsedMillis;
+	private double rowsPerSecond;
+	private List<String> errors;
+
+}
@@ -0,0 +1,17 @@
+package com.gfttraining.DTO;
+
+import java.math.BigDecimal;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LoyaltySummaryDTO {
+
+	private BigDecimal averageSpent;
+	private int points;
+
+}
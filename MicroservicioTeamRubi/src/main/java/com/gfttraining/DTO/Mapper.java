@@ -2,7 +2,7 @@ package com.gfttraining.DTO;
 
 import java.math.BigDecimal;
 
-import org.modelmapper.ModelMapper;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.gfttraining.entity.UserEntity;
@@ -13,18 +13,26 @@ import lombok.extern.slf4j.Slf4j;
 @Component
 public class Mapper {
 
-	private ModelMapper mapper;
+	private UserMapper userMapper;
 
-	public Mapper() {
-		this.mapper = new ModelMapper();
+	@Autowired
+	public Mapper(UserMapper userMapper) {
+		this.userMapper = userMapper;
 	}
 
 	public UserEntityDTO toUserWithAvgSpentAndFidelityPoints(UserEntity user, BigDecimal spent, int points) {
-		UserEntityDTO userDTO = mapper.map(user, UserEntityDTO.class);
+		UserEntityDTO userDTO = userMapper.toUserEntityDTO(user);
 		userDTO.setAverageSpent(spent);
 		userDTO.setPoints(points);
 		log.info("Returning a UserEntityDTO with fidelityPoints and avgSpent");
 		return userDTO;
 	}
 
+	public UserEntityDTO toUserWithoutLoyalty(UserEntity user) {
+		UserEntityDTO userDTO = userMapper.toUserEntityDTO(user);
+		userDTO.setLoyaltyAvailable(false);
+		log.info("Returning a UserEntityDTO without fidelityPoints and avgSpent");
+		return userDTO;
+	}
+
 }
@@ -0,0 +1,16 @@
+package com.gfttraining.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductFavoritesDTO {
+
+	private int productId;
+	// users that have the product as favorite
+	private long favorites;
+
+}
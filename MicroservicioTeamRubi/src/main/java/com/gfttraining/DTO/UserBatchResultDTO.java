@@ -0,0 +1,19 @@
+package com.gfttraining.DTO;
+
+import com.gfttraining.service.UserBatchStatus;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserBatchResultDTO {
+
+	private int index;
+	private UserBatchStatus status;
+	private Integer id;
+	private String error;
+
+}
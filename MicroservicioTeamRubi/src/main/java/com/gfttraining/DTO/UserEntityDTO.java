@@ -32,5 +32,7 @@ public class UserEntityDTO {
 	private BigDecimal averageSpent;
 	private int points;
 	private Set<FavoriteProduct> favorites;
+	// false when the cart service could not be reached in time, averageSpent and points are then unknown
+	private boolean loyaltyAvailable = true;
 
 }
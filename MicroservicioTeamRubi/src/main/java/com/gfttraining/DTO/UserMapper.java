@@ -0,0 +1,19 @@
+package com.gfttraining.DTO;
+
+import org.mapstruct.Mapping;
+
+import com.gfttraining.entity.UserEntity;
+
+/**
+ * Mapping generated at compile time, the implementation is UserMapperImpl under target/generated-sources.
+ */
+@org.mapstruct.Mapper(componentModel = "spring")
+public interface UserMapper {
+
+	// averageSpent and points come from the cart service, see Mapper
+	@Mapping(target = "averageSpent", ignore = true)
+	@Mapping(target = "points", ignore = true)
+	@Mapping(target = "loyaltyAvailable", ignore = true)
+	UserEntityDTO toUserEntityDTO(UserEntity user);
+
+}
@@ -0,0 +1,20 @@
+package com.gfttraining.DTO;
+
+import java.util.List;
+
+import com.gfttraining.entity.UserEntity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserPageDTO {
+
+	private List<UserEntity> users;
+	private String next;
+	private Long total;
+
+}
@@ -0,0 +1,23 @@
+package com.gfttraining.DTO;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserStatsDTO {
+
+	// users without a payment method are counted under this key
+	public static final String NO_PAYMENT_METHOD = "NONE";
+
+	private long total;
+	private Map<String, Long> countries;
+	private Map<String, Long> paymentMethods;
+	private LocalDateTime computedAt;
+
+}
@@ -1,43 +1,59 @@
 package com.gfttraining.config;
 
-import org.modelmapper.Condition;
-import org.modelmapper.Conditions;
-import org.modelmapper.ModelMapper;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
-import java.util.Collection;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.PoolingHttpClientConnectionManagerMetricsBinder;
 
 @Configuration
 public class AppConfig {
 
 	@Bean
-	public ModelMapper modelMapper() {
+	public PoolingHttpClientConnectionManager httpConnectionManager(HttpClientProperties properties) {
 
-		ModelMapper modelMapper = new ModelMapper();
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(properties.getMaxTotal());
+		connectionManager.setDefaultMaxPerRoute(properties.getMaxPerRoute());
+		connectionManager.setValidateAfterInactivity((int) properties.getValidateAfterInactivity().toMillis());
 
-		modelMapper.getConfiguration()
-		.setPropertyCondition(Conditions.isNotNull())
-		.setPropertyCondition(skipEmptyLists());
+		return connectionManager;
+	}
 
-		return modelMapper;
+	@Bean
+	public CloseableHttpClient httpClient(PoolingHttpClientConnectionManager httpConnectionManager, HttpClientProperties properties) {
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout((int) properties.getConnectTimeout().toMillis())
+				.setSocketTimeout((int) properties.getReadTimeout().toMillis())
+				.setConnectionRequestTimeout((int) properties.getConnectionRequestTimeout().toMillis())
+				.build();
+
+		return HttpClients.custom()
+				.setConnectionManager(httpConnectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.evictExpiredConnections()
+				.evictIdleConnections(properties.getIdleEviction().toMillis(), TimeUnit.MILLISECONDS)
+				.build();
 	}
 
 	@Bean
-	public RestTemplate restTemplate() {
-		return new RestTemplate();
+	public RestTemplate restTemplate(CloseableHttpClient httpClient) {
+		return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
 	}
 
-	private Condition<?, ?> skipEmptyLists() {
-		return ctx -> {
-			Object sourceValue = ctx.getSource();
-			if (sourceValue instanceof Collection) {
-				return !((Collection<?>) sourceValue).isEmpty();
-			} else {
-				return sourceValue != null;
-			}
-		};
+	@Bean
+	public MeterBinder httpConnectionPoolMetrics(PoolingHttpClientConnectionManager httpConnectionManager) {
+		// leased, available and pending connections under httpcomponents.httpclient.pool.*
+		return new PoolingHttpClientConnectionManagerMetricsBinder(httpConnectionManager, "microservices");
 	}
 
 }
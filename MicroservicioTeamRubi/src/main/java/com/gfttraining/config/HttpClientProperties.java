@@ -0,0 +1,38 @@
+package com.gfttraining.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Pool and timeout settings of the HTTP client shared by every call to the
+ * cart and product microservices.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "http-client")
+public class HttpClientProperties {
+
+	/** Connections open at once across all routes. */
+	private int maxTotal = 100;
+
+	/** Connections open at once to a single host, i.e. to one microservice. */
+	private int maxPerRoute = 20;
+
+	private Duration connectTimeout = Duration.ofSeconds(2);
+
+	private Duration readTimeout = Duration.ofSeconds(5);
+
+	/** How long a caller waits for a free pooled connection before failing. */
+	private Duration connectionRequestTimeout = Duration.ofSeconds(1);
+
+	/** Idle connections are closed after this, before the server drops them on its side. */
+	private Duration idleEviction = Duration.ofSeconds(30);
+
+	/** A connection unused for longer than this is checked before it is reused. */
+	private Duration validateAfterInactivity = Duration.ofSeconds(2);
+
+}
@@ -0,0 +1,96 @@
+package com.gfttraining.config;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.OptionalLong;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cache.spi.RegionFactory;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.JCacheMetrics;
+
+/**
+ * Hibernate's second-level and query caches live in a Caffeine JCache
+ * manager built here, so each region gets the bound and TTL configured for
+ * it. Hibernate fails at startup on a region that is not configured
+ * instead of creating it unbounded.
+ */
+@Configuration
+public class SecondLevelCacheConfig {
+
+	@Bean(destroyMethod = "close")
+	public CacheManager hibernateCacheManager(SecondLevelCacheProperties properties) {
+
+		// a provider of its own, so every application context gets fresh regions
+		CacheManager cacheManager = new CaffeineCachingProvider()
+				.getCacheManager(URI.create("hibernate"), getClass().getClassLoader());
+
+		properties.getRegions().forEach((name, region) -> {
+			CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+			configuration.setMaximumSize(OptionalLong.of(region.getMaximumSize()));
+			configuration.setExpireAfterWrite(OptionalLong.of(region.getTtl().toNanos()));
+			configuration.setStatisticsEnabled(true);
+			cacheManager.createCache(name, configuration);
+		});
+
+		// cached query results are checked against these timestamps, losing one would serve stale results
+		CaffeineConfiguration<Object, Object> timestamps = new CaffeineConfiguration<>();
+		timestamps.setStatisticsEnabled(true);
+		cacheManager.createCache(RegionFactory.DEFAULT_UPDATE_TIMESTAMPS_REGION_UNQUALIFIED_NAME, timestamps);
+
+		return cacheManager;
+	}
+
+	@Bean
+	public HibernatePropertiesCustomizer secondLevelCacheCustomizer(CacheManager hibernateCacheManager) {
+		return hibernateProperties -> hibernateProperties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+	}
+
+	@Bean
+	public MeterBinder secondLevelCacheMetrics(CacheManager hibernateCacheManager) {
+		// gets, puts and evictions under cache.*, plus cache.hit.ratio, each tagged with the region name
+		return registry -> {
+			for (String region : hibernateCacheManager.getCacheNames()) {
+				Cache<Object, Object> cache = hibernateCacheManager.getCache(region);
+				JCacheMetrics.monitor(registry, cache);
+				ObjectName statistics = statisticsName(hibernateCacheManager, region);
+				Gauge.builder("cache.hit.ratio", statistics, SecondLevelCacheConfig::hitRatio)
+						.tag("cache", region)
+						.description("Share of the region's lookups answered from the cache")
+						.strongReference(true)
+						.register(registry);
+			}
+		};
+	}
+
+	private static ObjectName statisticsName(CacheManager cacheManager, String region) {
+		try {
+			return new ObjectName("javax.cache:type=CacheStatistics,CacheManager=" + cacheManager.getURI() + ",Cache=" + region);
+		} catch (JMException e) {
+			throw new IllegalStateException("Invalid name of cache region " + region, e);
+		}
+	}
+
+	private static double hitRatio(ObjectName statistics) {
+		try {
+			float percentage = (Float) ManagementFactory.getPlatformMBeanServer().getAttribute(statistics, "CacheHitPercentage");
+			return percentage / 100;
+		} catch (JMException e) {
+			return Double.NaN;
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.gfttraining.config;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Bound and TTL of every region of Hibernate's second-level and query
+ * caches, keyed by region name.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "users.second-level-cache")
+public class SecondLevelCacheProperties {
+
+	private Map<String, Region> regions = new LinkedHashMap<>();
+
+	@Data
+	public static class Region {
+
+		private long maximumSize = 10000;
+
+		/** Entries are dropped this long after being written, whatever the writes seen by Hibernate. */
+		private Duration ttl = Duration.ofMinutes(10);
+
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.gfttraining.connection;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import com.gfttraining.entity.CartEntity;
+import com.gfttraining.exception.CartServiceUnavailableException;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig.SlidingWindowType;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reads carts from the cart microservice. Lookups for many users are fanned
+ * out over a small pool of its own, so a page of summaries costs about one
+ * cart-service round trip instead of one per user, and callers wait at most
+ * {@link #getTimeout()} for the whole batch.
+ *
+ * Every call goes through a circuit breaker that opens when too many recent
+ * calls failed or were slow. While it is open lookups fail at once with a
+ * {@link CartServiceUnavailableException} instead of tying up a thread until
+ * the socket gives up; after a while a few probe calls decide whether it
+ * closes again. Its state is published as resilience4j.circuitbreaker.* metrics.
+ */
+@Slf4j
+@Service
+public class CartServiceClient implements MeterBinder {
+
+	private static final ParameterizedTypeReference<List<CartEntity>> CART_LIST = new ParameterizedTypeReference<List<CartEntity>>() {};
+
+	private RetrieveInformationFromExternalMicroservice retrieveInformationFromExternalMicroservice;
+
+	private CartServiceProperties properties;
+
+	private CircuitBreakerRegistry circuitBreakerRegistry;
+
+	private CircuitBreaker circuitBreaker;
+
+	private ThreadPoolTaskExecutor executor;
+
+	public CartServiceClient(RetrieveInformationFromExternalMicroservice retrieveInformationFromExternalMicroservice, CartServiceProperties properties) {
+		this.retrieveInformationFromExternalMicroservice = retrieveInformationFromExternalMicroservice;
+		this.properties = properties;
+
+		CartServiceProperties.CircuitBreaker breaker = properties.getCircuitBreaker();
+		circuitBreakerRegistry = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+				.slidingWindowType(SlidingWindowType.COUNT_BASED)
+				.slidingWindowSize(breaker.getSlidingWindowSize())
+				.minimumNumberOfCalls(breaker.getMinimumNumberOfCalls())
+				.failureRateThreshold(breaker.getFailureRateThreshold())
+				.slowCallRateThreshold(breaker.getSlowCallRateThreshold())
+				.slowCallDurationThreshold(breaker.getSlowCallDuration())
+				.waitDurationInOpenState(breaker.getWaitInOpenState())
+				.permittedNumberOfCallsInHalfOpenState(breaker.getPermittedCallsInHalfOpenState())
+				.build());
+		circuitBreaker = circuitBreakerRegistry.circuitBreaker("carts");
+		circuitBreaker.getEventPublisher().onStateTransition(event ->
+				log.warn("Cart service circuit breaker " + event.getStateTransition()));
+
+		executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(properties.getFanOut().getWorkers());
+		executor.setMaxPoolSize(properties.getFanOut().getWorkers());
+		executor.setQueueCapacity(properties.getFanOut().getQueueCapacity());
+		executor.setThreadNamePrefix("cart-lookup-");
+		executor.initialize();
+	}
+
+	public Duration getTimeout() {
+		return properties.getTimeout();
+	}
+
+	public List<CartEntity> getCarts(int userId) {
+		try {
+			return circuitBreaker.executeSupplier(() ->
+					retrieveInformationFromExternalMicroservice.getExternalInformation(properties.getUrl() + userId, CART_LIST));
+		} catch (CallNotPermittedException e) {
+			throw new CartServiceUnavailableException("Cart service circuit breaker is " + circuitBreaker.getState());
+		}
+	}
+
+	public CompletableFuture<List<CartEntity>> getCartsAsync(int userId) {
+
+		// refused here, an open breaker costs no queueing behind lookups that will be refused too
+		if (!circuitBreaker.tryAcquirePermission()) {
+			return CompletableFuture.failedFuture(new CartServiceUnavailableException("Cart service circuit breaker is " + circuitBreaker.getState()));
+		}
+		circuitBreaker.releasePermission();
+
+		try {
+			return CompletableFuture.supplyAsync(() -> getCarts(userId), executor);
+		} catch (TaskRejectedException e) {
+			log.error("Cart lookup for user " + userId + " rejected, too many lookups queued");
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakerRegistry).bindTo(registry);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+}
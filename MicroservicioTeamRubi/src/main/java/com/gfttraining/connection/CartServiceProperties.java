@@ -0,0 +1,60 @@
+package com.gfttraining.connection;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Settings of {@link CartServiceClient}: where the cart microservice lives,
+ * how many lookups run at once and when its circuit breaker opens.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "carts")
+public class CartServiceProperties {
+
+	private String url = "http://localhost:8082/carts/user/";
+
+	/** Longest a request waits for carts, for one user or a whole page of them. */
+	private Duration timeout = Duration.ofSeconds(2);
+
+	private FanOut fanOut = new FanOut();
+
+	private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+	@Data
+	public static class FanOut {
+
+		private int workers = 16;
+
+		private int queueCapacity = 500;
+
+	}
+
+	@Data
+	public static class CircuitBreaker {
+
+		/** Percentage of failed calls in the window that opens the breaker. */
+		private float failureRateThreshold = 50;
+
+		/** Percentage of calls slower than slowCallDuration in the window that opens the breaker. */
+		private float slowCallRateThreshold = 50;
+
+		private Duration slowCallDuration = Duration.ofSeconds(1);
+
+		/** Number of most recent calls the rates are computed over. */
+		private int slidingWindowSize = 20;
+
+		private int minimumNumberOfCalls = 10;
+
+		/** How long calls are refused before a few probe calls are let through. */
+		private Duration waitInOpenState = Duration.ofSeconds(30);
+
+		private int permittedCallsInHalfOpenState = 3;
+
+	}
+
+}
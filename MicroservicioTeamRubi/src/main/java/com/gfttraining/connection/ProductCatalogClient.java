@@ -0,0 +1,231 @@
+package com.gfttraining.connection;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Answers whether a product exists in the product microservice, remembering
+ * the answer so favorite writes rarely pay a remote call. Existing products
+ * are kept much longer than missing ones and are re-checked in the
+ * background; if that check fails the last known answer is kept, so an
+ * outage of the product service never turns a valid product into a 404.
+ * Ids missing from the cache and background re-checks are asked for on a
+ * small pool of its own; once that pool is busy the calling thread asks too.
+ */
+@Slf4j
+@Service
+public class ProductCatalogClient implements MeterBinder {
+
+	private RestTemplate restTemplate;
+
+	private String productsUrl;
+
+	private boolean warmUp;
+
+	private ThreadPoolTaskExecutor lookupExecutor;
+
+	private final LoadingCache<Integer, Boolean> existence;
+
+	@Autowired
+	public ProductCatalogClient(RestTemplate restTemplate, @Value("${products.url:http://localhost:8081/products}") String productsUrl,
+			@Value("${products.cache.maximum-size:10000}") long maximumSize, @Value("${products.cache.positive-ttl:1h}") Duration positiveTtl,
+			@Value("${products.cache.negative-ttl:30s}") Duration negativeTtl, @Value("${products.cache.refresh-after:5m}") Duration refreshAfter,
+			@Value("${products.cache.warm-up:false}") boolean warmUp, @Value("${products.lookup.workers:16}") int lookupWorkers,
+			@Value("${products.lookup.queue-capacity:100}") int lookupQueueCapacity) {
+		this(restTemplate, productsUrl, maximumSize, positiveTtl, negativeTtl, refreshAfter, warmUp, lookupExecutor(lookupWorkers, lookupQueueCapacity));
+	}
+
+	// refreshes are blocking calls too, they share the lookup pool instead of the common fork-join pool
+	private ProductCatalogClient(RestTemplate restTemplate, String productsUrl, long maximumSize, Duration positiveTtl, Duration negativeTtl,
+			Duration refreshAfter, boolean warmUp, ThreadPoolTaskExecutor lookupExecutor) {
+		this(restTemplate, productsUrl, maximumSize, positiveTtl, negativeTtl, refreshAfter, warmUp, Ticker.systemTicker(), lookupExecutor,
+				lookupExecutor);
+	}
+
+	ProductCatalogClient(RestTemplate restTemplate, String productsUrl, long maximumSize, Duration positiveTtl, Duration negativeTtl,
+			Duration refreshAfter, boolean warmUp, Ticker ticker, Executor executor, ThreadPoolTaskExecutor lookupExecutor) {
+		this.restTemplate = restTemplate;
+		this.productsUrl = productsUrl;
+		this.warmUp = warmUp;
+		this.lookupExecutor = lookupExecutor;
+		this.existence = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfter(new ExistenceExpiry(positiveTtl.toNanos(), negativeTtl.toNanos()))
+				.refreshAfterWrite(refreshAfter)
+				.ticker(ticker)
+				.executor(executor)
+				.recordStats()
+				.build(new CacheLoader<Integer, Boolean>() {
+					@Override
+					public Boolean load(Integer productId) {
+						return fetchExists(productId);
+					}
+
+					@Override
+					public Map<Integer, Boolean> loadAll(Iterable<? extends Integer> productIds) {
+						return fetchAllExist(productIds);
+					}
+				});
+	}
+
+	private static ThreadPoolTaskExecutor lookupExecutor(int workers, int queueCapacity) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(workers);
+		executor.setMaxPoolSize(workers);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.setThreadNamePrefix("product-lookup-");
+		executor.initialize();
+		return executor;
+	}
+
+	public boolean productExists(int productId) {
+		return existence.get(productId);
+	}
+
+	/**
+	 * Returns, in the order given, the product ids the product microservice
+	 * does not know. The whole list is looked up in the cache in one pass,
+	 * only the ids without a cached answer are asked for, all at once.
+	 */
+	public List<Integer> missingProducts(Collection<Integer> productIds) {
+		Map<Integer, Boolean> exists = existence.getAll(productIds);
+		return productIds.stream()
+				.filter(productId -> !exists.get(productId))
+				.collect(Collectors.toList());
+	}
+
+	private Boolean fetchExists(Integer productId) {
+
+		try {
+			ResponseEntity<String> responseEntity = restTemplate.getForEntity(productsUrl + "/id/" + productId, String.class);
+			return responseEntity.getStatusCode() == HttpStatus.OK;
+		}
+		catch (HttpClientErrorException.NotFound e) {
+			return false;
+		}
+		catch (RestClientException e) {
+			// not cached: the next request asks again, and a cached answer being refreshed is kept as it was
+			log.error("Could not check product " + productId + ": " + e.getMessage());
+			throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Couldn't connect with the product microservice");
+		}
+	}
+
+	private Map<Integer, Boolean> fetchAllExist(Iterable<? extends Integer> productIds) {
+
+		Map<Integer, CompletableFuture<Boolean>> lookups = new HashMap<>();
+		for (Integer productId : productIds) {
+			lookups.put(productId, CompletableFuture.supplyAsync(() -> fetchExists(productId), lookupExecutor));
+		}
+
+		Map<Integer, Boolean> exists = new HashMap<>();
+		try {
+			lookups.forEach((productId, lookup) -> exists.put(productId, lookup.join()));
+		} catch (CompletionException e) {
+			// one failed lookup fails the whole list, the others are not worth waiting for
+			lookups.values().forEach(lookup -> lookup.cancel(true));
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+		}
+		return exists;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void warmUp() {
+
+		if (!warmUp) {
+			return;
+		}
+
+		try {
+			JsonNode products = restTemplate.getForObject(productsUrl, JsonNode.class);
+			int loaded = 0;
+			if (products != null) {
+				for (JsonNode product : products) {
+					if (product.hasNonNull("id")) {
+						existence.put(product.get("id").asInt(), true);
+						loaded++;
+					}
+				}
+			}
+			log.info("Loaded " + loaded + " products into the product cache");
+		}
+		catch (RestClientException e) {
+			log.error("Could not warm up the product cache: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		CaffeineCacheMetrics.monitor(registry, existence, "products");
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		lookupExecutor.shutdown();
+	}
+
+	private static class ExistenceExpiry implements Expiry<Integer, Boolean> {
+
+		private final long positiveTtlNanos;
+
+		private final long negativeTtlNanos;
+
+		private ExistenceExpiry(long positiveTtlNanos, long negativeTtlNanos) {
+			this.positiveTtlNanos = positiveTtlNanos;
+			this.negativeTtlNanos = negativeTtlNanos;
+		}
+
+		@Override
+		public long expireAfterCreate(Integer productId, Boolean exists, long currentTime) {
+			return exists ? positiveTtlNanos : negativeTtlNanos;
+		}
+
+		@Override
+		public long expireAfterUpdate(Integer productId, Boolean exists, long currentTime, long currentDuration) {
+			return exists ? positiveTtlNanos : negativeTtlNanos;
+		}
+
+		@Override
+		public long expireAfterRead(Integer productId, Boolean exists, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+
+	}
+
+}
@@ -13,8 +13,14 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 @Service
 public class RetrieveInformationFromExternalMicroservice {
+
+    private RestTemplate restTemplate;
+
+    public RetrieveInformationFromExternalMicroservice(RestTemplate restTemplate) {
+        this.restTemplate = restTemplate;
+    }
+
     public <T> T getExternalInformation(String path, ParameterizedTypeReference<T> responseType) {
-        RestTemplate restTemplate = new RestTemplate();
         try {
             ResponseEntity<T> responseEntity = restTemplate.exchange(path, HttpMethod.GET, null, responseType);
             T response = responseEntity.getBody();
@@ -1,9 +1,12 @@
 package com.gfttraining.controller;
+import java.io.IOException;
+import java.net.URI;
 import java.util.List;
 
 import javax.validation.Valid;
 
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -13,14 +16,23 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.ResourceAccessException;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.gfttraining.DTO.FavoriteChangesDTO;
+import com.gfttraining.DTO.ImportJobDTO;
+import com.gfttraining.DTO.ProductFavoritesDTO;
+import com.gfttraining.DTO.UserBatchResultDTO;
 import com.gfttraining.DTO.UserEntityDTO;
+import com.gfttraining.DTO.UserPageDTO;
+import com.gfttraining.DTO.UserStatsDTO;
+import com.gfttraining.connection.ProductCatalogClient;
 import com.gfttraining.entity.UserEntity;
+import com.gfttraining.service.ImportMode;
+import com.gfttraining.service.ImportJobService;
+import com.gfttraining.service.UserImportService;
 import com.gfttraining.service.UserService;
 
 @RestController
@@ -28,16 +40,43 @@ public class UserController {
 
 	private UserService userService;
 
-	private RestTemplate restTemplate;
+	private ImportJobService importJobService;
 
-	public UserController(UserService userService, RestTemplate restTemplate) {
+	private UserImportService userImportService;
+
+	private ProductCatalogClient productCatalogClient;
+
+	public UserController(UserService userService, ImportJobService importJobService, UserImportService userImportService,
+			ProductCatalogClient productCatalogClient) {
 		this.userService = userService;
-		this.restTemplate = restTemplate;
+		this.importJobService = importJobService;
+		this.userImportService = userImportService;
+		this.productCatalogClient = productCatalogClient;
 	}
 
 	@GetMapping("/users")
-	public List<UserEntity> getAllUsers(){
-		return userService.findAll();
+	public UserPageDTO getAllUsers(@RequestParam(required = false) String cursor,
+			@RequestParam(defaultValue = "100") int limit,
+			@RequestParam(defaultValue = "false") boolean count){
+		return userService.findPage(cursor, limit, count);
+	}
+
+	@GetMapping(value = "/users/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public ResponseEntity<StreamingResponseBody> exportUsers(@RequestParam(defaultValue = "false") boolean favorites){
+		StreamingResponseBody body = out -> userService.exportUsers(out, favorites);
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+	}
+
+	@GetMapping("/users/stats")
+	public UserStatsDTO getUserStats(){
+		return userService.getUserStats();
+	}
+
+	@GetMapping("/users/search")
+	public UserPageDTO searchUsers(@RequestParam String q,
+			@RequestParam(required = false) String cursor,
+			@RequestParam(defaultValue = "20") int limit){
+		return userService.searchUsers(q, cursor, limit);
 	}
 
 	@GetMapping("/users/name/{name}")
@@ -56,9 +95,26 @@ public class UserController {
 		return new ResponseEntity<>(userService.createUser(user), HttpStatus.CREATED);
 	}
 
+	@PostMapping("/users/batch")
+	public List<UserBatchResultDTO> createUsers(@RequestBody List<JsonNode> users) {
+		return userImportService.createUsers(users);
+	}
+
 	@PostMapping("/users/import")
-	public ResponseEntity<Void> saveAllImportedUsers(@RequestParam("file") MultipartFile file) {
-		return userService.saveAllImportedUsers(file);
+	public ResponseEntity<ImportJobDTO> saveAllImportedUsers(@RequestParam("file") MultipartFile file,
+			@RequestParam(defaultValue = "REPLACE") ImportMode mode) throws IOException {
+		ImportJobDTO job = importJobService.submit(file, mode).toDTO();
+		return ResponseEntity.accepted().location(URI.create("/users/import/" + job.getId())).body(job);
+	}
+
+	@GetMapping("/users/import/{jobId}")
+	public ImportJobDTO getImportJob(@PathVariable String jobId) {
+		return importJobService.findJob(jobId).toDTO();
+	}
+
+	@DeleteMapping("/users/import/{jobId}")
+	public ResponseEntity<ImportJobDTO> cancelImportJob(@PathVariable String jobId) {
+		return ResponseEntity.accepted().body(importJobService.cancel(jobId).toDTO());
 	}
 
 	public void deleteAllUsers() {
@@ -67,7 +123,7 @@ public class UserController {
 
 	@PatchMapping("/users/{id}")
 	public ResponseEntity<UserEntity> updateUserById(@PathVariable int id, @RequestBody UserEntity user) {
-		return new ResponseEntity<UserEntity>(userService.updateUserById(id,user), HttpStatus.CREATED);
+		return new ResponseEntity<UserEntity>(userService.updateUserById(id,user), HttpStatus.OK);
 	}
 
 	@GetMapping("/users/email/{email}")
@@ -76,11 +132,28 @@ public class UserController {
 		return new ResponseEntity<UserEntity>(userService.findUserByEmail(email), HttpStatus.OK);
 	}
 
+	@GetMapping("/users/summary")
+	public List<UserEntityDTO> getUsersWithAvgSpentAndFidelityPoints(@RequestParam List<Integer> ids) {
+		return userService.getUsersWithAvgSpentAndFidelityPoints(ids);
+	}
+
 	@GetMapping("/users/{id}")
 	public UserEntityDTO getUserWithAvgSpentAndFidelityPoints(@PathVariable int id) {
 		return userService.getUserWithAvgSpentAndFidelityPoints(id);
 	}
 
+	@DeleteMapping("/users/{id}/loyalty")
+	public ResponseEntity<Void> evictLoyaltySummary(@PathVariable int id) {
+		userService.evictLoyaltySummary(id);
+		return ResponseEntity.noContent().build();
+	}
+
+	@DeleteMapping("/users/loyalty")
+	public ResponseEntity<Void> evictAllLoyaltySummaries() {
+		userService.evictAllLoyaltySummaries();
+		return ResponseEntity.noContent().build();
+	}
+
 	public UserEntity getUserById(int id) {
 		return userService.findUserById(id);
 	}
@@ -88,7 +161,7 @@ public class UserController {
 	@PostMapping("/favorite/{userId}/{productId}")
 	public ResponseEntity<UserEntity> addFavoriteProduct(@PathVariable int userId, @PathVariable int productId) throws Exception  {
 
-		if(productExists(productId)) {
+		if(productCatalogClient.productExists(productId)) {
 			return new ResponseEntity<UserEntity>(userService.addFavoriteProduct(userId, productId), HttpStatus.CREATED);
 		}
 		else {
@@ -96,6 +169,16 @@ public class UserController {
 		}
 	}
 
+	@PostMapping("/favorite/{userId}")
+	public FavoriteChangesDTO addFavoriteProducts(@PathVariable int userId, @RequestBody List<Integer> productIds) {
+		return userService.addFavoriteProducts(userId, productIds);
+	}
+
+	@DeleteMapping("/favorite/{userId}")
+	public FavoriteChangesDTO deleteFavoriteProducts(@PathVariable int userId, @RequestBody List<Integer> productIds) {
+		return userService.deleteFavoriteProducts(userId, productIds);
+	}
+
 	@DeleteMapping("/favorite/{userId}/{productId}")
 	public ResponseEntity<Void> deleteFavoriteProduct(@PathVariable int userId, @PathVariable int productId) throws Exception  {
 
@@ -105,6 +188,19 @@ public class UserController {
 
 	}
 
+	@GetMapping("/favorite/top")
+	public List<ProductFavoritesDTO> getTopFavoriteProducts(@RequestParam(defaultValue = "10") int n){
+		return userService.getTopFavoriteProducts(n);
+	}
+
+	@GetMapping("/favorite/product/{productId}/users")
+	public UserPageDTO getUsersByFavoriteProduct(@PathVariable int productId,
+			@RequestParam(required = false) String cursor,
+			@RequestParam(defaultValue = "100") int limit,
+			@RequestParam(defaultValue = "false") boolean count){
+		return userService.findUsersByFavoriteProduct(productId, cursor, limit, count);
+	}
+
 	@DeleteMapping("/favorite/product/{productId}")
 	public ResponseEntity<Void> deleteFavoriteProductFromAllUsers(@PathVariable int productId) throws Exception  {
 
@@ -114,18 +210,4 @@ public class UserController {
 
 	}
 
-
-	private boolean productExists(int productId) {
-
-		try {
-			ResponseEntity<String> responseEntity = restTemplate.getForEntity(
-					"http://localhost:8081/products/id/" + productId, String.class);
-			return responseEntity.getStatusCode() == HttpStatus.OK;
-		}
-		catch(HttpClientErrorException.NotFound | ResourceAccessException ex) {
-			return false;
-		}
-
-	}
-
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.gfttraining.entity;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -7,6 +8,9 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -20,6 +24,8 @@ import lombok.RequiredArgsConstructor;
 @Data
 @Entity
 @Table(name="favoriteproduct")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "favoriteproduct")
 public class FavoriteProduct {
 
 	@Id
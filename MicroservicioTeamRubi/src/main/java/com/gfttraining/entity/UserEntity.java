@@ -3,6 +3,7 @@ package com.gfttraining.entity;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
+import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -15,6 +16,8 @@ import javax.persistence.Table;
 import javax.validation.constraints.Email;
 import javax.validation.constraints.NotNull;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.springframework.lang.Nullable;
 
 import lombok.AllArgsConstructor;
@@ -30,6 +33,8 @@ import lombok.RequiredArgsConstructor;
 @Data
 @Entity
 @Table(name="user")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "user")
 public class UserEntity {
 
 	@Id
@@ -62,6 +67,7 @@ public class UserEntity {
 	private String paymentmethod;
 
 	@OneToMany(cascade = CascadeType.ALL)
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "user-favorites")
 	@JoinColumn(name = "user_id", referencedColumnName = "id")
 	private Set<FavoriteProduct> favorites = new LinkedHashSet<FavoriteProduct>();
 
@@ -0,0 +1,8 @@
+package com.gfttraining.exception;
+
+public class CartServiceUnavailableException extends RuntimeException {
+
+	public CartServiceUnavailableException(String message) {
+		super(message);
+	}
+}
@@ -78,7 +78,7 @@ public class GlobalExceptionHandler {
 
 		log.error(ex.getReason());
 
-		return new ResponseEntity<ExceptionResponse>(res, HttpStatus.NOT_FOUND);
+		return new ResponseEntity<ExceptionResponse>(res, ex.getStatus());
 	}
 
 
@@ -2,20 +2,30 @@ package com.gfttraining.repository;
 
 import java.util.List;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
 import com.gfttraining.entity.FavoriteProduct;
 
-public interface FavoriteRepository extends JpaRepository<FavoriteProduct, Integer> {
+public interface FavoriteRepository extends JpaRepository<FavoriteProduct, Integer>, FavoriteRepositoryCustom {
 
 	List<FavoriteProduct> findByUserId(Integer userId);
 
-	boolean existsByUserIdAndProductId(Integer userId, Integer productId);
+	// ordered like the (product_id, user_id) index, so a page stops after limit rows instead of sorting every fan
+	@Query("select f.userId from FavoriteProduct f where f.productId = :productId and f.userId > :afterId order by f.productId, f.userId")
+	List<Integer> findUserIdsByProductIdAfter(Integer productId, Integer afterId, Pageable pageable);
 
-	boolean existsByProductId(Integer productId);
+	long countByProductId(Integer productId);
 
-	void deleteByUserIdAndProductId(Integer userId, Integer productId);
+	// single DELETE statements returning the row count, a derived delete would load and remove every favorite one by one
+	@Modifying
+	@Query("delete from FavoriteProduct f where f.userId = :userId and f.productId = :productId")
+	int deleteByUserIdAndProductId(Integer userId, Integer productId);
 
-	void deleteByProductId(Integer productId);
+	@Modifying
+	@Query("delete from FavoriteProduct f where f.productId = :productId")
+	int deleteByProductId(Integer productId);
 
 }
@@ -0,0 +1,30 @@
+package com.gfttraining.repository;
+
+import java.util.List;
+import java.util.Map;
+
+import com.gfttraining.entity.FavoriteProduct;
+
+public interface FavoriteRepositoryCustom {
+
+	/**
+	 * Inserts the favorites in a single JDBC batch, leaving pairs that
+	 * already exist untouched. Returns the update count of each row, so 0
+	 * means the pair was already there.
+	 */
+	int[] insertAllIfAbsent(List<FavoriteProduct> favorites);
+
+	/**
+	 * Deletes the favorites, matched on user and product, in a single JDBC
+	 * batch. Unlike deleteAll, no entity is loaded or removed. Returns the
+	 * update count of each row, so 0 means the pair was not there.
+	 */
+	int[] deleteAllByUserAndProduct(List<FavoriteProduct> favorites);
+
+	/**
+	 * Number of favorites of every product that has at least one, read in a
+	 * single GROUP BY over the whole table.
+	 */
+	Map<Integer, Long> countAllByProduct();
+
+}
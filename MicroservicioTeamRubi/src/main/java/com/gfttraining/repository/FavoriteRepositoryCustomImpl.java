@@ -0,0 +1,76 @@
+package com.gfttraining.repository;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.gfttraining.entity.FavoriteProduct;
+
+public class FavoriteRepositoryCustomImpl implements FavoriteRepositoryCustom {
+
+	private static final String INSERT_IF_ABSENT =
+			"insert into favoriteproduct (user_id, product_id) values (?, ?) on conflict do nothing";
+
+	private static final String DELETE =
+			"delete from favoriteproduct where user_id = ? and product_id = ?";
+
+	private static final String COUNT_BY_PRODUCT =
+			"select product_id, count(*) from favoriteproduct group by product_id";
+
+	private JdbcTemplate jdbcTemplate;
+
+	private SecondLevelCacheEvictor cacheEvictor;
+
+	public FavoriteRepositoryCustomImpl(JdbcTemplate jdbcTemplate, SecondLevelCacheEvictor cacheEvictor) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.cacheEvictor = cacheEvictor;
+	}
+
+	@Override
+	public int[] insertAllIfAbsent(List<FavoriteProduct> favorites) {
+
+		if (favorites.isEmpty()) {
+			return new int[0];
+		}
+
+		cacheEvictor.favoritesChanged(userIds(favorites));
+
+		return jdbcTemplate.batchUpdate(INSERT_IF_ABSENT, favorites, favorites.size(), (ps, favorite) -> {
+			ps.setInt(1, favorite.getUserId());
+			ps.setInt(2, favorite.getProductId());
+		})[0];
+	}
+
+	@Override
+	public int[] deleteAllByUserAndProduct(List<FavoriteProduct> favorites) {
+
+		if (favorites.isEmpty()) {
+			return new int[0];
+		}
+
+		cacheEvictor.favoritesChanged(userIds(favorites));
+
+		return jdbcTemplate.batchUpdate(DELETE, favorites, favorites.size(), (ps, favorite) -> {
+			ps.setInt(1, favorite.getUserId());
+			ps.setInt(2, favorite.getProductId());
+		})[0];
+	}
+
+	@Override
+	public Map<Integer, Long> countAllByProduct() {
+
+		Map<Integer, Long> counts = new HashMap<>();
+		jdbcTemplate.query(COUNT_BY_PRODUCT, rs -> {
+			counts.put(rs.getInt(1), rs.getLong(2));
+		});
+		return counts;
+	}
+
+	private static List<Integer> userIds(List<FavoriteProduct> favorites) {
+		return favorites.stream().map(FavoriteProduct::getUserId).collect(Collectors.toList());
+	}
+
+}
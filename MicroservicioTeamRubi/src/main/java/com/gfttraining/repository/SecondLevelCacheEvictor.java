@@ -0,0 +1,80 @@
+package com.gfttraining.repository;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.gfttraining.entity.UserEntity;
+
+/**
+ * Keeps Hibernate's second-level and query caches in step with the writes
+ * that go through JDBC, which Hibernate never sees. Entries are evicted
+ * when the write runs and again once its transaction commits, so a reader
+ * that loaded the old rows in between cannot leave them cached.
+ */
+@Component
+public class SecondLevelCacheEvictor {
+
+	private static final String FAVORITES_ROLE = UserEntity.class.getName() + ".favorites";
+
+	private final Cache cache;
+
+	public SecondLevelCacheEvictor(EntityManagerFactory entityManagerFactory) {
+		this.cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+	}
+
+	public void userChanged(int id) {
+		evict(() -> {
+			cache.evictEntityData(UserEntity.class, id);
+			cache.evictCollectionData(FAVORITES_ROLE, id);
+			cache.evictQueryRegion(UserRepository.QUERY_CACHE_REGION);
+		});
+	}
+
+	public void usersChanged() {
+		evict(() -> {
+			cache.evictEntityData(UserEntity.class);
+			cache.evictQueryRegion(UserRepository.QUERY_CACHE_REGION);
+		});
+	}
+
+	// a cached query result, even an empty one, may have to include the new users
+	public void usersInserted() {
+		evict(() -> cache.evictQueryRegion(UserRepository.QUERY_CACHE_REGION));
+	}
+
+	public void favoritesChanged(Collection<Integer> userIds) {
+		Collection<Integer> owners = new LinkedHashSet<>(userIds);
+		evict(() -> owners.forEach(userId -> cache.evictCollectionData(FAVORITES_ROLE, userId)));
+	}
+
+	public void allFavoritesChanged() {
+		evict(() -> cache.evictCollectionData(FAVORITES_ROLE));
+	}
+
+	public void allChanged() {
+		evict(cache::evictAllRegions);
+	}
+
+	private void evict(Runnable eviction) {
+
+		eviction.run();
+
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					eviction.run();
+				}
+			});
+		}
+	}
+
+}
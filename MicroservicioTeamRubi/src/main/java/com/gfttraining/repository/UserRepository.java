@@ -1,19 +1,52 @@
 package com.gfttraining.repository;
 
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_CACHE_MODE;
+import static org.hibernate.jpa.QueryHints.HINT_CACHE_REGION;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
+
+import javax.persistence.QueryHint;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import com.gfttraining.entity.UserEntity;
 
-public interface UserRepository extends JpaRepository<UserEntity, Integer>{
+public interface UserRepository extends JpaRepository<UserEntity, Integer>, UserRepositoryCustom {
+
+	String QUERY_CACHE_REGION = "user-queries";
 
 	UserEntity findByName(String name);
 
+	@QueryHints({@QueryHint(name = HINT_CACHEABLE, value = "true"), @QueryHint(name = HINT_CACHE_REGION, value = QUERY_CACHE_REGION)})
 	UserEntity findByEmail(String email);
 
 	boolean existsByEmail(String email);
 
+	@Query("select distinct u from UserEntity u left join fetch u.favorites where u.name = :name order by u.id")
+	@QueryHints({@QueryHint(name = HINT_CACHEABLE, value = "true"), @QueryHint(name = HINT_CACHE_REGION, value = QUERY_CACHE_REGION)})
 	List<UserEntity> findAllByName(String name);
 
+	// pages are cut on ids alone, then read with findAllWithFavoritesByIdIn, a fetch join cannot be limited in SQL
+	@Query("select u.id from UserEntity u where u.id > :afterId order by u.id")
+	List<Integer> findIdsAfter(Integer afterId, Pageable pageable);
+
+	@Query("select distinct u from UserEntity u left join fetch u.favorites where u.id in :ids order by u.id")
+	List<UserEntity> findAllWithFavoritesByIdIn(Collection<Integer> ids);
+
+	// a full scan would push every cached user out of the second-level cache, so exports bypass it
+	@Query("select u from UserEntity u order by u.id")
+	@QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HINT_CACHE_MODE, value = "IGNORE")})
+	Stream<UserEntity> streamAll();
+
+	@Query("select u from UserEntity u left join fetch u.favorites order by u.id")
+	@QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HINT_CACHE_MODE, value = "IGNORE")})
+	Stream<UserEntity> streamAllWithFavorites();
+
 }
\ No newline at end of file
@@ -0,0 +1,89 @@
+package com.gfttraining.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import com.gfttraining.DTO.UserStatsDTO;
+import com.gfttraining.entity.UserEntity;
+
+public interface UserRepositoryCustom {
+
+	/**
+	 * Inserts the users in a single JDBC batch. Rows whose email is already
+	 * taken are skipped by the unique constraint instead of failing the batch.
+	 * Inserted users get their generated id set, skipped ones keep a null id.
+	 */
+	int insertAllSkippingDuplicates(List<UserEntity> users);
+
+	/**
+	 * Updates, matching on email, only the users whose columns differ from
+	 * the stored row. Returns how many rows were actually written.
+	 */
+	int updateChangedByEmail(List<UserEntity> users);
+
+	/**
+	 * Writes the non-null columns of changes to the user with the given id in
+	 * a single UPDATE and returns the row as stored afterwards, without its
+	 * favorites. Empty when there is no such user.
+	 */
+	Optional<UserEntity> updateSuppliedColumns(int id, UserEntity changes);
+
+	Map<String, Integer> findIdsByEmails(Collection<String> emails);
+
+	/**
+	 * Streams the email of every user to the action, one row at a time.
+	 */
+	void forEachEmail(Consumer<String> action);
+
+	/**
+	 * Streams every user to the action, one row at a time, with only the
+	 * id, email, name and lastname read.
+	 */
+	void forEachSearchableUser(Consumer<UserEntity> action);
+
+	/**
+	 * Counts the users per country and per payment method with a single
+	 * GROUP BY over the (country, paymentmethod) index. The computation
+	 * time is left unset.
+	 */
+	UserStatsDTO countByCountryAndPaymentMethod();
+
+	/**
+	 * Deletes every favorite and every user with two set-based statements.
+	 * Returns the number of users deleted.
+	 */
+	int deleteAllWithFavorites();
+
+	/**
+	 * Deletes the user with the given id and its favorites with two
+	 * set-based statements, after reading the email of the user and the
+	 * products of its favorites in a single join on the same connection.
+	 * Returns the deleted user with only that read, empty when there was no
+	 * such user, in which case nothing is deleted.
+	 */
+	Optional<UserEntity> deleteByIdWithFavorites(int id);
+
+	/**
+	 * Copies the users and their favorites into the staging tables. Returns
+	 * the update count of each user, so 0 means the email was already staged.
+	 */
+	int[] stageAll(List<UserEntity> users);
+
+	int updateChangedFromStaging();
+
+	int insertNewFromStaging();
+
+	/**
+	 * Removes the users missing from the staging table together with every
+	 * favorite that is not staged. Returns the number of users deleted.
+	 */
+	int deleteMissingFromStaging();
+
+	int insertNewFavoritesFromStaging();
+
+	void clearStaging();
+
+}
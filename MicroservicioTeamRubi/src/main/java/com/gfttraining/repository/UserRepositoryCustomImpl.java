@@ -0,0 +1,338 @@
+package com.gfttraining.repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+
+import com.gfttraining.DTO.UserStatsDTO;
+import com.gfttraining.entity.FavoriteProduct;
+import com.gfttraining.entity.UserEntity;
+
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+	private static final String INSERT_SKIPPING_DUPLICATES =
+			"insert into user (email, name, lastname, address, country, paymentmethod) values (?, ?, ?, ?, ?, ?) on conflict do nothing";
+
+	private static final String UPDATE_CHANGED_BY_EMAIL =
+			"update user set name = ?, lastname = ?, address = ?, country = ?, paymentmethod = ? "
+					+ "where email = ? and (name <> ? or lastname <> ? or address <> ? or country <> ? or paymentmethod is distinct from ?)";
+
+	private static final String STAGE_USER =
+			"insert into user_staging (email, name, lastname, address, country, paymentmethod) values (?, ?, ?, ?, ?, ?) on conflict do nothing";
+
+	private static final String STAGE_FAVORITE =
+			"insert into favoriteproduct_staging (email, product_id) values (?, ?) on conflict do nothing";
+
+	private static final String UPDATE_CHANGED_FROM_STAGING =
+			"update user u set (name, lastname, address, country, paymentmethod) = "
+					+ "(select s.name, s.lastname, s.address, s.country, s.paymentmethod from user_staging s where s.email = u.email) "
+					+ "where exists (select 1 from user_staging s where s.email = u.email and "
+					+ "(s.name <> u.name or s.lastname <> u.lastname or s.address <> u.address or s.country <> u.country or s.paymentmethod is distinct from u.paymentmethod))";
+
+	private static final String INSERT_NEW_FROM_STAGING =
+			"insert into user (email, name, lastname, address, country, paymentmethod) "
+					+ "select s.email, s.name, s.lastname, s.address, s.country, s.paymentmethod from user_staging s "
+					+ "where not exists (select 1 from user u where u.email = s.email)";
+
+	private static final String DELETE_FAVORITES_MISSING_FROM_STAGING =
+			"delete from favoriteproduct f where not exists (select 1 from favoriteproduct_staging s join user u on u.email = s.email "
+					+ "where u.id = f.user_id and s.product_id = f.product_id)";
+
+	private static final String DELETE_USERS_MISSING_FROM_STAGING =
+			"delete from user u where not exists (select 1 from user_staging s where s.email = u.email)";
+
+	private static final String INSERT_NEW_FAVORITES_FROM_STAGING =
+			"insert into favoriteproduct (user_id, product_id) select u.id, s.product_id from favoriteproduct_staging s join user u on u.email = s.email "
+					+ "where not exists (select 1 from favoriteproduct f where f.user_id = u.id and f.product_id = s.product_id)";
+
+	private static final String FIND_EMAIL_AND_FAVORITES =
+			"select u.email, f.product_id from user u left join favoriteproduct f on f.user_id = u.id where u.id = ?";
+
+	private static final String COUNT_BY_COUNTRY_AND_PAYMENT_METHOD =
+			"select country, paymentmethod, count(*) from user group by country, paymentmethod";
+
+	private static final String[] USER_COLUMNS = {"id", "email", "name", "lastname", "address", "country", "paymentmethod"};
+
+	private JdbcTemplate jdbcTemplate;
+
+	private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+	private SecondLevelCacheEvictor cacheEvictor;
+
+	public UserRepositoryCustomImpl(JdbcTemplate jdbcTemplate, NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+			SecondLevelCacheEvictor cacheEvictor) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+		this.cacheEvictor = cacheEvictor;
+	}
+
+	@Override
+	public int insertAllSkippingDuplicates(List<UserEntity> users) {
+
+		if (users.isEmpty()) {
+			return 0;
+		}
+
+		cacheEvictor.usersInserted();
+
+		return jdbcTemplate.execute(con -> con.prepareStatement(INSERT_SKIPPING_DUPLICATES, new String[] {"id"}), (PreparedStatement ps) -> {
+
+			for (UserEntity user : users) {
+				user.setId(null);
+				ps.setString(1, user.getEmail());
+				ps.setString(2, user.getName());
+				ps.setString(3, user.getLastname());
+				ps.setString(4, user.getAddress());
+				ps.setString(5, user.getCountry());
+				ps.setString(6, user.getPaymentmethod());
+				ps.addBatch();
+			}
+
+			int[] counts = ps.executeBatch();
+			int inserted = 0;
+
+			// generated keys only come back for the rows that were actually inserted
+			try (ResultSet keys = ps.getGeneratedKeys()) {
+				for (int i = 0; i < counts.length; i++) {
+					if (counts[i] > 0 && keys.next()) {
+						users.get(i).setId(keys.getInt(1));
+						inserted++;
+					}
+				}
+			}
+			return inserted;
+		});
+	}
+
+	@Override
+	public int updateChangedByEmail(List<UserEntity> users) {
+
+		if (users.isEmpty()) {
+			return 0;
+		}
+
+		cacheEvictor.usersChanged();
+
+		int[][] counts = jdbcTemplate.batchUpdate(UPDATE_CHANGED_BY_EMAIL, users, users.size(), (ps, user) -> {
+			ps.setString(1, user.getName());
+			ps.setString(2, user.getLastname());
+			ps.setString(3, user.getAddress());
+			ps.setString(4, user.getCountry());
+			ps.setString(5, user.getPaymentmethod());
+			ps.setString(6, user.getEmail());
+			ps.setString(7, user.getName());
+			ps.setString(8, user.getLastname());
+			ps.setString(9, user.getAddress());
+			ps.setString(10, user.getCountry());
+			ps.setString(11, user.getPaymentmethod());
+		});
+		return Arrays.stream(counts[0]).sum();
+	}
+
+	@Override
+	public Optional<UserEntity> updateSuppliedColumns(int id, UserEntity changes) {
+
+		MapSqlParameterSource params = new MapSqlParameterSource("id", id);
+		StringJoiner assignments = new StringJoiner(", ");
+		addAssignment(assignments, params, "email", changes.getEmail());
+		addAssignment(assignments, params, "name", changes.getName());
+		addAssignment(assignments, params, "lastname", changes.getLastname());
+		addAssignment(assignments, params, "address", changes.getAddress());
+		addAssignment(assignments, params, "country", changes.getCountry());
+		addAssignment(assignments, params, "paymentmethod", changes.getPaymentmethod());
+
+		List<Map<String, Object>> rows;
+		if (assignments.length() == 0) {
+			rows = namedParameterJdbcTemplate.queryForList("select * from user where id = :id", params);
+		} else {
+			// the updated row comes back as the generated keys of the same statement
+			cacheEvictor.userChanged(id);
+			KeyHolder keyHolder = new GeneratedKeyHolder();
+			namedParameterJdbcTemplate.update("update user set " + assignments + " where id = :id", params, keyHolder, USER_COLUMNS);
+			rows = keyHolder.getKeyList();
+		}
+
+		return rows.stream().findFirst().map(this::toUser);
+	}
+
+	private UserEntity toUser(Map<String, Object> row) {
+		UserEntity user = new UserEntity((String) row.get("email"), (String) row.get("name"), (String) row.get("lastname"),
+				(String) row.get("address"), (String) row.get("country"));
+		user.setId(((Number) row.get("id")).intValue());
+		user.setPaymentmethod((String) row.get("paymentmethod"));
+		return user;
+	}
+
+	private void addAssignment(StringJoiner assignments, MapSqlParameterSource params, String column, String value) {
+		if (value != null) {
+			assignments.add(column + " = :" + column);
+			params.addValue(column, value);
+		}
+	}
+
+	@Override
+	public Map<String, Integer> findIdsByEmails(Collection<String> emails) {
+
+		Map<String, Integer> ids = new HashMap<>();
+		if (emails.isEmpty()) {
+			return ids;
+		}
+
+		namedParameterJdbcTemplate.query("select id, email from user where email in (:emails)", Map.of("emails", emails),
+				rs -> {
+					ids.put(rs.getString("email"), rs.getInt("id"));
+				});
+		return ids;
+	}
+
+	@Override
+	public void forEachEmail(Consumer<String> action) {
+		jdbcTemplate.query("select email from user", rs -> {
+			action.accept(rs.getString(1));
+		});
+	}
+
+	@Override
+	public void forEachSearchableUser(Consumer<UserEntity> action) {
+		jdbcTemplate.query("select id, email, name, lastname from user", rs -> {
+			UserEntity user = new UserEntity();
+			user.setId(rs.getInt(1));
+			user.setEmail(rs.getString(2));
+			user.setName(rs.getString(3));
+			user.setLastname(rs.getString(4));
+			action.accept(user);
+		});
+	}
+
+	@Override
+	public UserStatsDTO countByCountryAndPaymentMethod() {
+
+		Map<String, Long> countries = new TreeMap<>();
+		Map<String, Long> paymentMethods = new TreeMap<>();
+		long[] total = {0};
+
+		// a handful of groups, folded into both breakdowns from one consistent read
+		jdbcTemplate.query(COUNT_BY_COUNTRY_AND_PAYMENT_METHOD, rs -> {
+			String paymentMethod = rs.getString(2);
+			long count = rs.getLong(3);
+			countries.merge(rs.getString(1), count, Long::sum);
+			paymentMethods.merge(paymentMethod == null ? UserStatsDTO.NO_PAYMENT_METHOD : paymentMethod, count, Long::sum);
+			total[0] += count;
+		});
+
+		return new UserStatsDTO(total[0], countries, paymentMethods, null);
+	}
+
+	@Override
+	public int deleteAllWithFavorites() {
+		cacheEvictor.allChanged();
+		jdbcTemplate.update("delete from favoriteproduct");
+		return jdbcTemplate.update("delete from user");
+	}
+
+	@Override
+	public Optional<UserEntity> deleteByIdWithFavorites(int id) {
+
+		// plain columns, no entity is loaded for a row about to be deleted behind Hibernate's back
+		UserEntity deleted = new UserEntity();
+		jdbcTemplate.query(FIND_EMAIL_AND_FAVORITES, rs -> {
+			deleted.setEmail(rs.getString(1));
+			int productId = rs.getInt(2);
+			if (!rs.wasNull()) {
+				deleted.addFavorite(new FavoriteProduct(id, productId));
+			}
+		}, id);
+		if (deleted.getEmail() == null) {
+			return Optional.empty();
+		}
+
+		cacheEvictor.userChanged(id);
+		jdbcTemplate.update("delete from favoriteproduct where user_id = ?", id);
+		if (jdbcTemplate.update("delete from user where id = ?", id) == 0) {
+			return Optional.empty();
+		}
+		deleted.setId(id);
+		return Optional.of(deleted);
+	}
+
+	@Override
+	public int[] stageAll(List<UserEntity> users) {
+
+		if (users.isEmpty()) {
+			return new int[0];
+		}
+
+		int[] counts = jdbcTemplate.batchUpdate(STAGE_USER, users, users.size(), (ps, user) -> {
+			ps.setString(1, user.getEmail());
+			ps.setString(2, user.getName());
+			ps.setString(3, user.getLastname());
+			ps.setString(4, user.getAddress());
+			ps.setString(5, user.getCountry());
+			ps.setString(6, user.getPaymentmethod());
+		})[0];
+
+		List<Object[]> favorites = new ArrayList<>();
+		for (int i = 0; i < counts.length; i++) {
+			UserEntity user = users.get(i);
+			if (counts[i] > 0 && user.getFavorites() != null) {
+				for (FavoriteProduct favorite : user.getFavorites()) {
+					if (favorite.getProductId() != null) {
+						favorites.add(new Object[] {user.getEmail(), favorite.getProductId()});
+					}
+				}
+			}
+		}
+		if (!favorites.isEmpty()) {
+			jdbcTemplate.batchUpdate(STAGE_FAVORITE, favorites);
+		}
+
+		return counts;
+	}
+
+	@Override
+	public int updateChangedFromStaging() {
+		cacheEvictor.usersChanged();
+		return jdbcTemplate.update(UPDATE_CHANGED_FROM_STAGING);
+	}
+
+	@Override
+	public int insertNewFromStaging() {
+		cacheEvictor.usersInserted();
+		return jdbcTemplate.update(INSERT_NEW_FROM_STAGING);
+	}
+
+	@Override
+	public int deleteMissingFromStaging() {
+		cacheEvictor.allChanged();
+		jdbcTemplate.update(DELETE_FAVORITES_MISSING_FROM_STAGING);
+		return jdbcTemplate.update(DELETE_USERS_MISSING_FROM_STAGING);
+	}
+
+	@Override
+	public int insertNewFavoritesFromStaging() {
+		cacheEvictor.allFavoritesChanged();
+		return jdbcTemplate.update(INSERT_NEW_FAVORITES_FROM_STAGING);
+	}
+
+	@Override
+	public void clearStaging() {
+		jdbcTemplate.update("delete from favoriteproduct_staging");
+		jdbcTemplate.update("delete from user_staging");
+	}
+
+}
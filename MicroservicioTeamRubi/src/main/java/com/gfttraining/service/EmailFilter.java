@@ -0,0 +1,280 @@
+package com.gfttraining.service;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.gfttraining.repository.UserRepository;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Counting Bloom filter of the registered emails. It is sized for the
+ * expected number of emails at the configured false-positive rate, and
+ * built from the user table at startup. An email the filter has never
+ * seen is certainly not registered, so its uniqueness check skips the
+ * database. Every other email is still checked there.
+ *
+ * Counters are 4 bits, sixteen to a word, updated with compare-and-set.
+ * Emails are added as soon as they are written and removed only once the
+ * removal commits. Anything missed can only make an email look unused,
+ * and the unique key on email still rejects it on insert. An email
+ * replaced by an update stays until the next reload, which only sends
+ * that email's check to the database.
+ */
+@Slf4j
+@Component
+public class EmailFilter implements SmartInitializingSingleton, MeterBinder {
+
+	private static final int COUNTER_BITS = 4;
+
+	private static final int COUNTERS_PER_WORD = Long.SIZE / COUNTER_BITS;
+
+	private static final long MAX_COUNT = (1L << COUNTER_BITS) - 1;
+
+	private UserRepository userRepository;
+
+	private final int counters;
+
+	private final int hashes;
+
+	private volatile AtomicLongArray words;
+
+	private final LongAdder emails = new LongAdder();
+
+	private final LongAdder absent = new LongAdder();
+
+	private final LongAdder present = new LongAdder();
+
+	private final LongAdder falsePositives = new LongAdder();
+
+	public EmailFilter(UserRepository userRepository, @Value("${users.email-filter.expected-emails:100000}") int expectedEmails,
+			@Value("${users.email-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+
+		this.userRepository = userRepository;
+
+		// the usual optimum: m = -n ln p / (ln 2)^2 counters and k = m / n ln 2 hash functions
+		double bits = -expectedEmails * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+		this.counters = (int) Math.max(COUNTERS_PER_WORD, Math.ceil(bits));
+		this.hashes = (int) Math.max(1, Math.round(counters / (double) expectedEmails * Math.log(2)));
+		this.words = newWords();
+	}
+
+	// after the data scripts have run and before the web server takes requests
+	@Override
+	public void afterSingletonsInstantiated() {
+		reload();
+	}
+
+	/**
+	 * Whether the email is registered. The database is only asked when the
+	 * filter may contain the email.
+	 */
+	public boolean exists(String email, Predicate<String> database) {
+
+		if (!mightContain(email)) {
+			absent.increment();
+			return false;
+		}
+
+		boolean exists = database.test(email);
+		(exists ? present : falsePositives).increment();
+		return exists;
+	}
+
+	public boolean mightContain(String email) {
+
+		AtomicLongArray current = words;
+		long hash = hash(email);
+		for (int i = 0; i < hashes; i++) {
+			if (count(current, index(hash, i)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void added(String email) {
+		add(words, email);
+		emails.increment();
+	}
+
+	public void addedAll(Collection<String> addedEmails) {
+		addedEmails.forEach(this::added);
+	}
+
+	public void removed(String email) {
+		afterCommit(() -> {
+			AtomicLongArray current = words;
+			long hash = hash(email);
+			for (int i = 0; i < hashes; i++) {
+				decrement(current, index(hash, i));
+			}
+			emails.decrement();
+		});
+	}
+
+	public void cleared() {
+		afterCommit(() -> {
+			words = newWords();
+			emails.reset();
+		});
+	}
+
+	/**
+	 * Builds the filter again from the user table and swaps it in. Emails
+	 * added while it is built may be missing until the next reload.
+	 */
+	public void reload() {
+
+		AtomicLongArray fresh = newWords();
+		long[] loaded = new long[1];
+		userRepository.forEachEmail(email -> {
+			add(fresh, email);
+			loaded[0]++;
+		});
+
+		words = fresh;
+		emails.reset();
+		emails.add(loaded[0]);
+
+		log.info("Loaded " + loaded[0] + " emails into the email filter");
+	}
+
+	public void reloadAfterCommit() {
+		afterCommit(this::reload);
+	}
+
+	/** Chance that an unregistered email still has to be checked in the database, from the current fill. */
+	public double expectedFalsePositiveRate() {
+		return Math.pow(1 - Math.exp(-hashes * (double) Math.max(0, emails.sum()) / counters), hashes);
+	}
+
+	public long memoryBytes() {
+		return (long) words.length() * Long.BYTES;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+
+		Gauge.builder("users.email.filter.memory", this, EmailFilter::memoryBytes)
+				.baseUnit(BaseUnits.BYTES)
+				.register(registry);
+		Gauge.builder("users.email.filter.emails", emails, LongAdder::sum)
+				.register(registry);
+		Gauge.builder("users.email.filter.false.positive.rate", this, EmailFilter::expectedFalsePositiveRate)
+				.description("Expected false-positive rate at the current fill")
+				.register(registry);
+
+		// false-positive / (false-positive + absent) is the observed rate
+		bindChecks(registry, "absent", absent);
+		bindChecks(registry, "present", present);
+		bindChecks(registry, "false-positive", falsePositives);
+	}
+
+	private static void bindChecks(MeterRegistry registry, String result, LongAdder count) {
+		FunctionCounter.builder("users.email.filter.checks", count, LongAdder::sum)
+				.tag("result", result)
+				.description("Uniqueness checks by answer, only absent ones skip the database")
+				.register(registry);
+	}
+
+	private AtomicLongArray newWords() {
+		return new AtomicLongArray((counters + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD);
+	}
+
+	private void add(AtomicLongArray target, String email) {
+		long hash = hash(email);
+		for (int i = 0; i < hashes; i++) {
+			increment(target, index(hash, i));
+		}
+	}
+
+	// double hashing: the i-th position is h1 + i * h2, both halves of one 64-bit hash
+	private int index(long hash, int i) {
+		int combined = (int) hash + i * (int) (hash >>> 32);
+		if (combined < 0) {
+			combined = ~combined;
+		}
+		return combined % counters;
+	}
+
+	private static long count(AtomicLongArray target, int index) {
+		return (target.get(index / COUNTERS_PER_WORD) >>> shift(index)) & MAX_COUNT;
+	}
+
+	private static void increment(AtomicLongArray target, int index) {
+
+		int word = index / COUNTERS_PER_WORD;
+		long current;
+		do {
+			current = target.get(word);
+			// a saturated counter stays put, it can no longer tell how many emails share it
+			if (((current >>> shift(index)) & MAX_COUNT) == MAX_COUNT) {
+				return;
+			}
+		} while (!target.compareAndSet(word, current, current + (1L << shift(index))));
+	}
+
+	private static void decrement(AtomicLongArray target, int index) {
+
+		int word = index / COUNTERS_PER_WORD;
+		long current;
+		do {
+			current = target.get(word);
+			long count = (current >>> shift(index)) & MAX_COUNT;
+			if (count == 0 || count == MAX_COUNT) {
+				return;
+			}
+		} while (!target.compareAndSet(word, current, current - (1L << shift(index))));
+	}
+
+	private static int shift(int index) {
+		return (index % COUNTERS_PER_WORD) * COUNTER_BITS;
+	}
+
+	// FNV-1a over the chars, then the murmur3 finalizer to spread it over all 64 bits
+	private static long hash(String email) {
+
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < email.length(); i++) {
+			hash ^= email.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb53f87e9c5dbL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private void afterCommit(Runnable change) {
+
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			change.run();
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				change.run();
+			}
+		});
+	}
+
+}
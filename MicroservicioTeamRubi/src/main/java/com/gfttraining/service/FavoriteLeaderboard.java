@@ -0,0 +1,157 @@
+package com.gfttraining.service;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.gfttraining.DTO.ProductFavoritesDTO;
+import com.gfttraining.repository.FavoriteRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * How many users have each product as favorite, kept in memory so the most
+ * favorited products are served without a GROUP BY over the favorites
+ * table. The table is counted once at startup and every later change is
+ * applied when its transaction commits. A change only bumps the product's
+ * LongAdder and marks the product as changed, so writers never wait on
+ * each other. Readers keep an ordered ranking and re-rank only the
+ * products changed since the previous read.
+ */
+@Slf4j
+@Component
+public class FavoriteLeaderboard implements SmartInitializingSingleton {
+
+	private static final Comparator<ProductFavoritesDTO> RANKING_ORDER =
+			Comparator.comparingLong(ProductFavoritesDTO::getFavorites).reversed()
+			.thenComparingInt(ProductFavoritesDTO::getProductId);
+
+	private FavoriteRepository favoriteRepository;
+
+	private final ConcurrentMap<Integer, LongAdder> counts = new ConcurrentHashMap<>();
+
+	private final Set<Integer> changed = ConcurrentHashMap.newKeySet();
+
+	// both guarded by this, the entries are never handed out so they are not modified once ranked
+	private final NavigableSet<ProductFavoritesDTO> ranking = new TreeSet<>(RANKING_ORDER);
+
+	private final Map<Integer, ProductFavoritesDTO> ranked = new HashMap<>();
+
+	public FavoriteLeaderboard(FavoriteRepository favoriteRepository) {
+		this.favoriteRepository = favoriteRepository;
+	}
+
+	// after the data scripts have run and before the web server takes requests
+	@Override
+	public void afterSingletonsInstantiated() {
+		reload();
+	}
+
+	public void added(Collection<Integer> productIds) {
+		afterCommit(() -> productIds.forEach(productId -> add(productId, 1)));
+	}
+
+	public void removed(Collection<Integer> productIds) {
+		afterCommit(() -> productIds.forEach(productId -> add(productId, -1)));
+	}
+
+	public void productRemoved(int productId) {
+		afterCommit(() -> set(productId, 0));
+	}
+
+	public void cleared() {
+		afterCommit(() -> counts.keySet().forEach(productId -> set(productId, 0)));
+	}
+
+	/**
+	 * Counts the table again, for changes too broad to track one by one.
+	 * Changes committed while the count runs may be applied twice or not at
+	 * all until the next reload.
+	 */
+	public void reload() {
+
+		Map<Integer, Long> fresh = favoriteRepository.countAllByProduct();
+		for (Integer productId : counts.keySet()) {
+			set(productId, fresh.getOrDefault(productId, 0L));
+		}
+		fresh.forEach(this::set);
+
+		log.info("Counted favorites of " + fresh.size() + " products");
+	}
+
+	public void reloadAfterCommit() {
+		afterCommit(this::reload);
+	}
+
+	public synchronized List<ProductFavoritesDTO> top(int n) {
+
+		// the mark is cleared before the counter is read, so a change racing with this read is picked up by the next one
+		for (Iterator<Integer> it = changed.iterator(); it.hasNext();) {
+			Integer productId = it.next();
+			it.remove();
+			rerank(productId, counts.get(productId).sum());
+		}
+
+		return ranking.stream()
+				.limit(n)
+				.map(entry -> new ProductFavoritesDTO(entry.getProductId(), entry.getFavorites()))
+				.collect(Collectors.toList());
+	}
+
+	private void rerank(int productId, long favorites) {
+
+		ProductFavoritesDTO previous = ranked.remove(productId);
+		if (previous != null) {
+			ranking.remove(previous);
+		}
+
+		if (favorites > 0) {
+			ProductFavoritesDTO entry = new ProductFavoritesDTO(productId, favorites);
+			ranked.put(productId, entry);
+			ranking.add(entry);
+		}
+	}
+
+	private void add(int productId, long delta) {
+		counts.computeIfAbsent(productId, id -> new LongAdder()).add(delta);
+		changed.add(productId);
+	}
+
+	private void set(int productId, long favorites) {
+		LongAdder counter = counts.computeIfAbsent(productId, id -> new LongAdder());
+		counter.add(favorites - counter.sum());
+		changed.add(productId);
+	}
+
+	// a rolled back change never reaches the counters
+	private void afterCommit(Runnable change) {
+
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			change.run();
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				change.run();
+			}
+		});
+	}
+
+}
@@ -0,0 +1,106 @@
+package com.gfttraining.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+
+import com.gfttraining.DTO.LoyaltySummaryDTO;
+import com.gfttraining.entity.CartEntity;
+import com.gfttraining.entity.ProductEntity;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Scores a user's carts: average spent per product and fidelity points.
+ * The configured tiers are compiled once into a sorted table of thresholds
+ * in cents, and the carts are walked a single time accumulating plain
+ * longs, so scoring allocates nothing per product beyond reading its price.
+ * The average is rounded half up to cents.
+ */
+@Slf4j
+@Component
+public class FidelityPointsEngine {
+
+	private static final int CENTS_SCALE = 2;
+
+	private final long[] thresholds;
+
+	private final int[] points;
+
+	public FidelityPointsEngine(FidelityProperties properties) {
+
+		List<FidelityProperties.Tier> tiers = new ArrayList<>(properties.getTiers());
+		tiers.sort(Comparator.comparing(FidelityProperties.Tier::getFrom));
+
+		thresholds = new long[tiers.size()];
+		points = new int[tiers.size()];
+		for (int i = 0; i < tiers.size(); i++) {
+			thresholds[i] = toCents(tiers.get(i).getFrom());
+			points[i] = tiers.get(i).getPoints();
+			if (i > 0 && thresholds[i] == thresholds[i - 1]) {
+				throw new IllegalStateException("Two fidelity tiers start at " + tiers.get(i).getFrom());
+			}
+		}
+
+		log.info("Loaded " + tiers.size() + " fidelity tiers");
+	}
+
+	public LoyaltySummaryDTO score(List<CartEntity> carts) {
+
+		long totalCents = 0;
+		long itemsBought = 0;
+		int totalPoints = 0;
+
+		for (CartEntity cart : carts) {
+			List<ProductEntity> products = cart.getProducts();
+			if (products == null) {
+				continue;
+			}
+			for (ProductEntity product : products) {
+				BigDecimal totalPrize = product.getTotalPrize();
+				if (totalPrize == null) {
+					continue;
+				}
+				long cents = toCents(totalPrize);
+				totalCents += cents;
+				itemsBought++;
+				totalPoints += pointsFor(cents);
+			}
+		}
+
+		return new LoyaltySummaryDTO(average(totalCents, itemsBought), totalPoints);
+	}
+
+	int pointsFor(long cents) {
+		// the tables are tiny, a scan from the top beats a binary search
+		for (int i = thresholds.length - 1; i >= 0; i--) {
+			if (cents >= thresholds[i]) {
+				return points[i];
+			}
+		}
+		return 0;
+	}
+
+	private static BigDecimal average(long totalCents, long itemsBought) {
+
+		if (itemsBought == 0) {
+			return BigDecimal.valueOf(0, CENTS_SCALE);
+		}
+
+		long averageCents = totalCents / itemsBought;
+		long remainder = totalCents % itemsBought;
+		if (Math.abs(remainder) * 2 >= itemsBought) {
+			averageCents += Long.signum(totalCents);
+		}
+		return BigDecimal.valueOf(averageCents, CENTS_SCALE);
+	}
+
+	static long toCents(BigDecimal amount) {
+		return amount.movePointRight(CENTS_SCALE).setScale(0, RoundingMode.HALF_UP).longValueExact();
+	}
+
+}
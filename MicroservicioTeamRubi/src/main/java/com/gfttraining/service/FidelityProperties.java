@@ -0,0 +1,41 @@
+package com.gfttraining.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Fidelity tiers: a product whose total is at least {@code from} earns the
+ * points of the highest tier it reaches, products below every tier earn none.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "users.fidelity")
+public class FidelityProperties {
+
+	private List<Tier> tiers = new ArrayList<>(Arrays.asList(
+			new Tier(new BigDecimal("20"), 1),
+			new Tier(new BigDecimal("30"), 3),
+			new Tier(new BigDecimal("50"), 5),
+			new Tier(new BigDecimal("100"), 10)));
+
+	@Data
+	@AllArgsConstructor
+	@NoArgsConstructor
+	public static class Tier {
+
+		private BigDecimal from;
+
+		private int points;
+
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.gfttraining.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.gfttraining.DTO.ImportJobDTO;
+import com.gfttraining.DTO.ImportReportDTO;
+
+import lombok.Getter;
+
+/**
+ * Progress of one import. The counters are written by the single worker
+ * running the import and read by status requests on other threads, hence
+ * the volatile fields.
+ */
+@Getter
+public class ImportJob {
+
+	static final int MAX_REPORTED_ERRORS = 100;
+
+	private final String id;
+
+	private final ImportMode mode;
+
+	private final LocalDateTime submittedAt = LocalDateTime.now();
+
+	private volatile LocalDateTime startedAt;
+
+	private volatile LocalDateTime finishedAt;
+
+	private volatile long startNanos;
+
+	private volatile long finishNanos;
+
+	private volatile ImportJobState state = ImportJobState.QUEUED;
+
+	private volatile boolean cancelRequested;
+
+	private volatile String failure;
+
+	volatile long processed;
+
+	volatile long imported;
+
+	volatile long inserted;
+
+	volatile long updated;
+
+	volatile long deleted;
+
+	volatile long rejected;
+
+	private final List<String> errors = new CopyOnWriteArrayList<>();
+
+	public ImportJob(String id, ImportMode mode) {
+		this.id = id;
+		this.mode = mode;
+	}
+
+	void start() {
+		startNanos = System.nanoTime();
+		startedAt = LocalDateTime.now();
+		state = ImportJobState.RUNNING;
+	}
+
+	void finish(ImportJobState finalState, String failure) {
+		finishNanos = System.nanoTime();
+		finishedAt = LocalDateTime.now();
+		this.failure = failure;
+		state = finalState;
+	}
+
+	void reject(String error) {
+		rejected++;
+		if (errors.size() < MAX_REPORTED_ERRORS) {
+			errors.add(error);
+		}
+	}
+
+	/**
+	 * Asks the worker to stop before its next row. A job still waiting in the
+	 * queue is skipped when its turn comes.
+	 */
+	void requestCancel() {
+		cancelRequested = true;
+	}
+
+	public boolean isFinished() {
+		return finishedAt != null;
+	}
+
+	public ImportReportDTO toReport() {
+
+		long elapsedNanos = 0;
+		if (startedAt != null) {
+			elapsedNanos = (isFinished() ? finishNanos : System.nanoTime()) - startNanos;
+		}
+		double rowsPerSecond = processed * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(elapsedNanos, 1);
+
+		return new ImportReportDTO(mode, imported, inserted, updated, deleted, rejected,
+				TimeUnit.NANOSECONDS.toMillis(elapsedNanos), rowsPerSecond, new ArrayList<>(errors));
+	}
+
+	public ImportJobDTO toDTO() {
+		return new ImportJobDTO(id, state, cancelRequested, processed, submittedAt, startedAt, finishedAt, failure, toReport());
+	}
+
+}
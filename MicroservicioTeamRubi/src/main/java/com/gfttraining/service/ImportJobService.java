@@ -0,0 +1,146 @@
+package com.gfttraining.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs imports in the background. Uploads are spooled to a temporary file
+ * so the request thread is released as soon as the bytes are on disk, and
+ * the loads themselves share a small fixed pool with a bounded queue.
+ * Finished jobs stay queryable for the configured retention.
+ */
+@Slf4j
+@Service
+public class ImportJobService {
+
+	private UserImportService userImportService;
+
+	private ThreadPoolTaskExecutor executor;
+
+	private Duration retention;
+
+	private final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+
+	public ImportJobService(UserImportService userImportService, @Value("${users.import.workers:2}") int workers,
+			@Value("${users.import.queue-capacity:10}") int queueCapacity, @Value("${users.import.retention:1h}") Duration retention) {
+		this.userImportService = userImportService;
+		this.retention = retention;
+
+		// a pool of its own, so long loads never starve the executor serving async requests
+		executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(workers);
+		executor.setMaxPoolSize(workers);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix("user-import-");
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+		executor.setAwaitTerminationSeconds(30);
+		executor.initialize();
+	}
+
+	public ImportJob submit(MultipartFile file, ImportMode mode) throws IOException {
+
+		evictExpiredJobs();
+
+		Path spool = Files.createTempFile("user-import-", ".json");
+		try {
+			file.transferTo(spool);
+		} catch (IOException e) {
+			Files.deleteIfExists(spool);
+			throw e;
+		}
+
+		ImportJob job = new ImportJob(UUID.randomUUID().toString(), mode);
+		jobs.put(job.getId(), job);
+		try {
+			executor.execute(() -> run(job, spool));
+		} catch (TaskRejectedException e) {
+			jobs.remove(job.getId());
+			Files.deleteIfExists(spool);
+			throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many imports queued, try again later");
+		}
+
+		log.info("Queued " + mode + " import " + job.getId() + " (" + file.getSize() + " bytes)");
+		return job;
+	}
+
+	public ImportJob findJob(String jobId) {
+
+		ImportJob job = jobs.get(jobId);
+		if (job == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Import job " + jobId + " not found");
+		}
+		return job;
+	}
+
+	public ImportJob cancel(String jobId) {
+
+		ImportJob job = findJob(jobId);
+		if (job.isFinished()) {
+			throw new ResponseStatusException(HttpStatus.CONFLICT, "Import job " + jobId + " already " + job.getState());
+		}
+
+		job.requestCancel();
+		log.info("Cancellation requested for import " + jobId);
+		return job;
+	}
+
+	private void run(ImportJob job, Path spool) {
+
+		try (InputStream in = Files.newInputStream(spool)) {
+			if (job.isCancelRequested()) {
+				throw new CancellationException("Import " + job.getId() + " cancelled before it started");
+			}
+			job.start();
+			userImportService.importUsers(in, job);
+			job.finish(ImportJobState.COMPLETED, null);
+		} catch (CancellationException e) {
+			log.info(e.getMessage());
+			job.finish(ImportJobState.CANCELLED, null);
+		} catch (ResponseStatusException e) {
+			log.error("Import " + job.getId() + " failed: " + e.getReason());
+			job.finish(ImportJobState.FAILED, e.getReason());
+		} catch (Exception e) {
+			log.error("Import " + job.getId() + " failed", e);
+			job.finish(ImportJobState.FAILED, e.getMessage());
+		} finally {
+			try {
+				Files.deleteIfExists(spool);
+			} catch (IOException e) {
+				log.error("Could not delete import spool file " + spool, e);
+			}
+		}
+	}
+
+	private void evictExpiredJobs() {
+		LocalDateTime threshold = LocalDateTime.now().minus(retention);
+		jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(threshold));
+	}
+
+	// running jobs stop at their next row and queued ones are skipped, then the pool drains
+	@PreDestroy
+	public void shutdown() {
+		jobs.values().forEach(ImportJob::requestCancel);
+		executor.shutdown();
+	}
+
+}
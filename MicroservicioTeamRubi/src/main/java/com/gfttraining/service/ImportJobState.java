@@ -0,0 +1,18 @@
+package com.gfttraining.service;
+
+public enum ImportJobState {
+
+	/** Accepted and spooled, waiting for a free import worker. */
+	QUEUED,
+
+	RUNNING,
+
+	COMPLETED,
+
+	/** Stopped on an error; chunks committed before it are kept unless the mode is STAGED. */
+	FAILED,
+
+	/** Stopped on request; chunks committed before it are kept unless the mode is STAGED. */
+	CANCELLED
+
+}
@@ -0,0 +1,17 @@
+package com.gfttraining.service;
+
+public enum ImportMode {
+
+	/** Wipes every user and favorite, then loads the file. */
+	REPLACE,
+
+	/** Upserts on email and writes only rows that changed; users missing from the file are kept. */
+	MERGE,
+
+	/**
+	 * Loads the file into staging tables first, then brings the live tables in
+	 * line with it in one transaction, so readers never see a partial import.
+	 */
+	STAGED
+
+}
@@ -0,0 +1,45 @@
+package com.gfttraining.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Opaque cursor for keyset pagination. It only wraps the last id returned,
+ * or for ranked results how many were already returned, so clients must
+ * treat it as a token and send it back untouched. Neither ids nor counts
+ * are negative, so a cursor decoding to one was not issued here.
+ */
+public final class KeysetCursor {
+
+	private KeysetCursor() {
+	}
+
+	public static String encode(int lastId) {
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(Integer.toString(lastId).getBytes(StandardCharsets.US_ASCII));
+	}
+
+	public static int decode(String cursor) {
+		if (cursor == null || cursor.isEmpty()) {
+			return 0;
+		}
+		int value;
+		try {
+			value = Integer.parseInt(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII));
+		} catch (IllegalArgumentException e) {
+			throw invalid(cursor);
+		}
+		if (value < 0) {
+			throw invalid(cursor);
+		}
+		return value;
+	}
+
+	private static ResponseStatusException invalid(String cursor) {
+		return new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor " + cursor);
+	}
+
+}
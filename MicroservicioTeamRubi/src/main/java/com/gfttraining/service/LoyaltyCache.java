@@ -0,0 +1,57 @@
+package com.gfttraining.service;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.gfttraining.DTO.LoyaltySummaryDTO;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Average spent and fidelity points per user id, so repeated lookups of the
+ * same customers skip the cart service. Entries are bounded in number and
+ * expire after the configured TTL. Values are futures: a lookup still in
+ * flight is shared by every caller asking for the same user, and a failed
+ * or cancelled one is dropped instead of cached. Hits, misses and evictions
+ * are published as cache.* metrics.
+ */
+@Component
+public class LoyaltyCache implements MeterBinder {
+
+	private final AsyncCache<Integer, LoyaltySummaryDTO> cache;
+
+	public LoyaltyCache(@Value("${users.loyalty-cache.maximum-size:10000}") long maximumSize,
+			@Value("${users.loyalty-cache.ttl:10m}") Duration ttl) {
+		cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ttl)
+				.recordStats()
+				.buildAsync();
+	}
+
+	public CompletableFuture<LoyaltySummaryDTO> get(int userId, Function<Integer, CompletableFuture<LoyaltySummaryDTO>> loader) {
+		return cache.get(userId, (id, executor) -> loader.apply(id));
+	}
+
+	public void invalidate(int userId) {
+		cache.synchronous().invalidate(userId);
+	}
+
+	public void invalidateAll() {
+		cache.synchronous().invalidateAll();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		CaffeineCacheMetrics.monitor(registry, cache.synchronous(), "loyalty");
+	}
+
+}
@@ -0,0 +1,13 @@
+package com.gfttraining.service;
+
+public enum UserBatchStatus {
+
+	CREATED,
+
+	/** The email was already taken, by a stored user or by an earlier entry of the same batch. */
+	DUPLICATE,
+
+	/** The entry did not bind to a user or failed validation; nothing was written for it. */
+	INVALID
+
+}
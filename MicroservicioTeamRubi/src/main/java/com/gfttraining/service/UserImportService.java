@@ -0,0 +1,414 @@
+package com.gfttraining.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gfttraining.DTO.ImportReportDTO;
+import com.gfttraining.DTO.UserBatchResultDTO;
+import com.gfttraining.entity.FavoriteProduct;
+import com.gfttraining.entity.UserEntity;
+import com.gfttraining.repository.FavoriteRepository;
+import com.gfttraining.repository.UserRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Loads a JSON array of users without ever holding the whole file. The
+ * array is read token by token, valid users are grouped in chunks and
+ * every chunk is written as one JDBC batch in its own transaction.
+ * How the chunks reach the user table depends on the {@link ImportMode}.
+ * Batches posted in a request body share the same validation and inserts.
+ */
+@Slf4j
+@Service
+public class UserImportService {
+
+	public static final int MAX_BATCH_SIZE = 10000;
+
+	private UserRepository userRepository;
+
+	private FavoriteRepository favoriteRepository;
+
+	private ObjectMapper objectMapper;
+
+	private Validator validator;
+
+	private TransactionTemplate transactionTemplate;
+
+	private FavoriteLeaderboard favoriteLeaderboard;
+
+	private EmailFilter emailFilter;
+
+	private UserSearchIndex userSearchIndex;
+
+	private int chunkSize;
+
+	// the staging tables are shared, so only one staged import may fill them at a time
+	private final ReentrantLock stagingLock = new ReentrantLock();
+
+	public UserImportService(UserRepository userRepository, FavoriteRepository favoriteRepository, ObjectMapper objectMapper,
+			Validator validator, TransactionTemplate transactionTemplate, FavoriteLeaderboard favoriteLeaderboard,
+			EmailFilter emailFilter, UserSearchIndex userSearchIndex, @Value("${users.import.chunk-size:1000}") int chunkSize) {
+		this.userRepository = userRepository;
+		this.favoriteRepository = favoriteRepository;
+		this.objectMapper = objectMapper;
+		this.validator = validator;
+		this.transactionTemplate = transactionTemplate;
+		this.favoriteLeaderboard = favoriteLeaderboard;
+		this.emailFilter = emailFilter;
+		this.userSearchIndex = userSearchIndex;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Runs the import on the calling thread, publishing its counters on the
+	 * job as it goes. Throws {@link CancellationException} once the job has
+	 * been asked to stop.
+	 */
+	public ImportReportDTO importUsers(InputStream in, ImportJob job) throws IOException {
+
+		ImportMode mode = job.getMode();
+		if (mode == ImportMode.STAGED && !stagingLock.tryLock()) {
+			throw new ResponseStatusException(HttpStatus.CONFLICT, "Another staged import is already running");
+		}
+
+		try {
+			prepare(mode, job);
+			readChunks(in, mode, job);
+			complete(mode, job);
+
+			ImportReportDTO report = job.toReport();
+			log.info(mode + " import of " + report.getImported() + " users: " + report.getInserted() + " inserted, " + report.getUpdated() + " updated, "
+					+ report.getDeleted() + " deleted, " + report.getRejected() + " rejected (" + Math.round(report.getRowsPerSecond()) + " rows/s)");
+
+			return report;
+		} catch (RuntimeException | IOException e) {
+			if (mode == ImportMode.STAGED) {
+				// a stopped staged import never touched the live tables, so nothing is left half done
+				transactionTemplate.execute(status -> {
+					userRepository.clearStaging();
+					return null;
+				});
+			}
+			throw e;
+		} finally {
+			if (mode == ImportMode.STAGED) {
+				stagingLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Creates the users of one request in a single transaction. Every entry
+	 * is validated on its own, the valid ones are inserted in JDBC batches
+	 * and the unique key on email decides which of them are duplicates.
+	 * The results come back in the order of the entries.
+	 */
+	public List<UserBatchResultDTO> createUsers(List<JsonNode> entries) {
+
+		if (entries.isEmpty() || entries.size() > MAX_BATCH_SIZE) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A batch must contain between 1 and " + MAX_BATCH_SIZE + " users");
+		}
+
+		List<UserBatchResultDTO> results = new ArrayList<>(entries.size());
+		List<UserEntity> users = new ArrayList<>(entries.size());
+		List<UserBatchResultDTO> pending = new ArrayList<>(entries.size());
+
+		for (int i = 0; i < entries.size(); i++) {
+			UserBatchResultDTO result = new UserBatchResultDTO(i, null, null, null);
+			results.add(result);
+
+			JsonNode entry = entries.get(i);
+			UserEntity user = entry.isObject() ? toValidUser(entry, result::setError) : null;
+			if (user == null) {
+				result.setStatus(UserBatchStatus.INVALID);
+				if (result.getError() == null) {
+					result.setError("expected a user object");
+				}
+				continue;
+			}
+			users.add(user);
+			pending.add(result);
+		}
+
+		int inserted = transactionTemplate.execute(status -> {
+			int count = 0;
+			for (int from = 0; from < users.size(); from += chunkSize) {
+				List<UserEntity> chunk = users.subList(from, Math.min(from + chunkSize, users.size()));
+				count += userRepository.insertAllSkippingDuplicates(chunk);
+				addInserted(chunk, false);
+				saveFavorites(chunk);
+			}
+			return count;
+		});
+
+		for (int i = 0; i < users.size(); i++) {
+			UserEntity user = users.get(i);
+			UserBatchResultDTO result = pending.get(i);
+			if (user.getId() != null) {
+				result.setStatus(UserBatchStatus.CREATED);
+				result.setId(user.getId());
+			}
+			else {
+				result.setStatus(UserBatchStatus.DUPLICATE);
+				result.setError("The email " + user.getEmail() + " is already in use");
+			}
+		}
+
+		log.info("Batch of " + entries.size() + " users: " + inserted + " created, " + (users.size() - inserted) + " duplicated, "
+				+ (entries.size() - users.size()) + " invalid");
+
+		return results;
+	}
+
+	private void prepare(ImportMode mode, ImportJob job) {
+
+		if (mode == ImportMode.REPLACE) {
+			job.deleted = transactionTemplate.execute(status -> {
+				int deleted = userRepository.deleteAllWithFavorites();
+				favoriteLeaderboard.cleared();
+				emailFilter.cleared();
+				userSearchIndex.cleared();
+				return deleted;
+			});
+			log.info("Deleted all users before import");
+		}
+		else if (mode == ImportMode.STAGED) {
+			transactionTemplate.execute(status -> {
+				userRepository.clearStaging();
+				return null;
+			});
+		}
+	}
+
+	private void readChunks(InputStream in, ImportMode mode, ImportJob job) throws IOException {
+
+		List<UserEntity> chunk = new ArrayList<>(chunkSize);
+
+		try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Import file must contain a JSON array of users");
+			}
+
+			long row = 0;
+			JsonToken token;
+			while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+
+				if (token == null) {
+					throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Import file ends before the array is closed");
+				}
+
+				if (job.isCancelRequested()) {
+					throw new CancellationException("Import " + job.getId() + " cancelled after " + job.getImported() + " users");
+				}
+
+				job.processed = ++row;
+				UserEntity user = readUser(parser, token, row, job);
+				if (user == null) {
+					continue;
+				}
+
+				chunk.add(user);
+				if (chunk.size() == chunkSize) {
+					saveChunk(chunk, mode, job);
+					chunk.clear();
+				}
+			}
+		} catch (JsonProcessingException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed import file after " + job.getImported() + " users: " + e.getOriginalMessage());
+		}
+
+		saveChunk(chunk, mode, job);
+	}
+
+	private void complete(ImportMode mode, ImportJob job) {
+
+		if (mode != ImportMode.STAGED) {
+			return;
+		}
+
+		// the only step readers can observe: one transaction that touches changed rows only
+		transactionTemplate.execute(status -> {
+			job.updated = userRepository.updateChangedFromStaging();
+			job.inserted = userRepository.insertNewFromStaging();
+			job.deleted = userRepository.deleteMissingFromStaging();
+			userRepository.insertNewFavoritesFromStaging();
+			userRepository.clearStaging();
+			// the merge adds, updates and deletes users and favorites in bulk, so everything kept in memory is rebuilt
+			favoriteLeaderboard.reloadAfterCommit();
+			emailFilter.reloadAfterCommit();
+			userSearchIndex.reloadAfterCommit();
+			return null;
+		});
+	}
+
+	private UserEntity readUser(JsonParser parser, JsonToken token, long row, ImportJob job) throws IOException {
+
+		if (token != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			job.reject("row " + row + ": expected a user object");
+			return null;
+		}
+
+		// each element becomes a small tree first, so a bad field rejects only its own row
+		JsonNode node = parser.readValueAsTree();
+		return toValidUser(node, error -> job.reject("row " + row + ": " + error));
+	}
+
+	private UserEntity toValidUser(JsonNode node, Consumer<String> reject) {
+
+		UserEntity user;
+		try {
+			user = objectMapper.treeToValue(node, UserEntity.class);
+		} catch (JsonProcessingException e) {
+			reject.accept(e.getOriginalMessage());
+			return null;
+		}
+
+		Set<ConstraintViolation<UserEntity>> violations = validator.validate(user);
+		if (!violations.isEmpty()) {
+			reject.accept(violations.stream()
+					.map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+					.collect(Collectors.joining(", ")));
+			return null;
+		}
+
+		return user;
+	}
+
+	private void saveChunk(List<UserEntity> chunk, ImportMode mode, ImportJob job) {
+
+		if (chunk.isEmpty()) {
+			return;
+		}
+
+		if (mode == ImportMode.STAGED) {
+			int[] staged = transactionTemplate.execute(status -> userRepository.stageAll(chunk));
+			for (int i = 0; i < staged.length; i++) {
+				if (staged[i] > 0) {
+					job.imported++;
+				}
+				else {
+					job.reject("email " + chunk.get(i).getEmail() + " is duplicated");
+				}
+			}
+			return;
+		}
+
+		transactionTemplate.execute(status -> {
+
+			if (mode == ImportMode.MERGE) {
+				job.updated += userRepository.updateChangedByEmail(chunk);
+			}
+			int inserted = userRepository.insertAllSkippingDuplicates(chunk);
+			job.inserted += inserted;
+			addInserted(chunk, mode == ImportMode.MERGE);
+
+			if (mode == ImportMode.MERGE) {
+				// every row of a merge is accepted, existing ones just need their id for the favorites
+				job.imported += chunk.size();
+				assignExistingIds(chunk, inserted);
+			}
+			else {
+				job.imported += inserted;
+				for (UserEntity user : chunk) {
+					if (user.getId() == null) {
+						job.reject("email " + user.getEmail() + " is duplicated");
+					}
+				}
+			}
+
+			saveFavorites(chunk);
+			return null;
+		});
+	}
+
+	private void assignExistingIds(List<UserEntity> chunk, int inserted) {
+
+		if (inserted == chunk.size()) {
+			return;
+		}
+
+		List<String> emails = new ArrayList<>();
+		for (UserEntity user : chunk) {
+			if (user.getId() == null && user.getFavorites() != null && !user.getFavorites().isEmpty()) {
+				emails.add(user.getEmail());
+			}
+		}
+
+		Map<String, Integer> ids = userRepository.findIdsByEmails(emails);
+		for (UserEntity user : chunk) {
+			if (user.getId() == null) {
+				user.setId(ids.get(user.getEmail()));
+			}
+		}
+	}
+
+	// only rows that were inserted got an id, a merge updated the others by email
+	private void addInserted(List<UserEntity> chunk, boolean merged) {
+
+		List<UserEntity> inserted = new ArrayList<>();
+		List<UserEntity> updated = new ArrayList<>();
+		for (UserEntity user : chunk) {
+			if (user.getId() != null) {
+				emailFilter.added(user.getEmail());
+				inserted.add(user);
+			}
+			else {
+				updated.add(user);
+			}
+		}
+
+		userSearchIndex.indexedAll(inserted);
+		if (merged) {
+			userSearchIndex.indexedByEmail(updated);
+		}
+	}
+
+	private void saveFavorites(List<UserEntity> chunk) {
+
+		List<FavoriteProduct> favorites = new ArrayList<>();
+		for (UserEntity user : chunk) {
+			if (user.getId() != null && user.getFavorites() != null) {
+				for (FavoriteProduct favorite : user.getFavorites()) {
+					if (favorite.getProductId() != null) {
+						favorites.add(new FavoriteProduct(user.getId(), favorite.getProductId()));
+					}
+				}
+			}
+		}
+		int[] counts = favoriteRepository.insertAllIfAbsent(favorites);
+
+		List<Integer> added = new ArrayList<>();
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				added.add(favorites.get(i).getProductId());
+			}
+		}
+		favoriteLeaderboard.added(added);
+	}
+
+}
@@ -0,0 +1,535 @@
+package com.gfttraining.service;
+
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.gfttraining.entity.UserEntity;
+import com.gfttraining.repository.UserRepository;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Search index over the name, lastname and email of every user, kept in
+ * memory so type-ahead search never scans the user table. Text is split
+ * into lowercase tokens without accents. A sorted token dictionary answers
+ * prefixes. A term that starts no token is taken as misspelt, and matches
+ * the tokens that share enough of its trigrams. The table is indexed once
+ * at startup and every later change is applied when its transaction
+ * commits.
+ *
+ * Every term of a query has to match a token of the user. An exact token
+ * scores above a prefix, a longer prefix above a shorter one and any
+ * prefix above a fuzzy match. The scores of the terms add up and ties go
+ * to the lower id.
+ */
+@Slf4j
+@Component
+public class UserSearchIndex implements SmartInitializingSingleton {
+
+	private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+	// a prefix scores between 2 and 3 by how much of the token it covers, so an exact token scores 3
+	private static final double PREFIX_SCORE = 2;
+
+	// the default of PostgreSQL's pg_trgm, a fuzzy match scores its similarity
+	private static final double SIMILARITY_THRESHOLD = 0.3;
+
+	// shorter terms share too few trigrams with anything for a fuzzy match to mean much
+	private static final int MIN_FUZZY_LENGTH = 3;
+
+	private UserRepository userRepository;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// guarded by lock, a reload builds a new one aside and swaps it in
+	private Index index = new Index();
+
+	public UserSearchIndex(UserRepository userRepository) {
+		this.userRepository = userRepository;
+	}
+
+	// after the data scripts have run and before the web server takes requests
+	@Override
+	public void afterSingletonsInstantiated() {
+		reload();
+	}
+
+	/**
+	 * The ids of the users ranked from offset to offset + limit, and how
+	 * many users match in total.
+	 */
+	public Hits search(String query, int offset, int limit) {
+
+		Set<String> terms = tokens(query);
+		if (terms.isEmpty()) {
+			return new Hits(List.of(), 0);
+		}
+
+		lock.readLock().lock();
+		try {
+			return index.search(terms, Math.max(0, offset), limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * How many users are indexed, so no search matches more.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return index.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public void indexed(UserEntity user) {
+		indexedAll(List.of(user));
+	}
+
+	/**
+	 * Indexes the users again with their current name, lastname and email.
+	 * Users without an id are skipped.
+	 */
+	public void indexedAll(Collection<UserEntity> users) {
+
+		List<Document> documents = users.stream()
+				.filter(user -> user.getId() != null)
+				.map(UserSearchIndex::toDocument)
+				.collect(Collectors.toList());
+
+		afterCommit(() -> write(index -> documents.forEach(index::add)));
+	}
+
+	/**
+	 * Indexes the users again, each one in place of the indexed user with
+	 * the same email, for writes that match users by email and never learn
+	 * their ids.
+	 */
+	public void indexedByEmail(Collection<UserEntity> users) {
+
+		List<Document> documents = users.stream()
+				.map(UserSearchIndex::toDocument)
+				.collect(Collectors.toList());
+
+		afterCommit(() -> write(index -> {
+			for (Document document : documents) {
+				Integer id = index.ids.get(document.email);
+				if (id != null) {
+					index.add(new Document(id, document.email, document.tokens));
+				}
+			}
+		}));
+	}
+
+	public void removed(int id) {
+		afterCommit(() -> write(index -> index.remove(id)));
+	}
+
+	public void cleared() {
+		afterCommit(() -> write(index -> index.clear()));
+	}
+
+	/**
+	 * Indexes the table again, for changes too broad to track one by one.
+	 * Changes committed while the table is read may be lost until the next
+	 * reload.
+	 */
+	public void reload() {
+
+		Index fresh = new Index();
+		userRepository.forEachSearchableUser(user -> fresh.add(toDocument(user)));
+
+		lock.writeLock().lock();
+		try {
+			index = fresh;
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		log.info("Indexed " + fresh.ids.size() + " users for search with " + fresh.tokens.size() + " distinct tokens");
+	}
+
+	public void reloadAfterCommit() {
+		afterCommit(this::reload);
+	}
+
+	private static Document toDocument(UserEntity user) {
+
+		Set<String> tokens = new LinkedHashSet<>();
+		tokens.addAll(tokens(user.getName()));
+		tokens.addAll(tokens(user.getLastname()));
+		tokens.addAll(tokens(user.getEmail()));
+
+		return new Document(user.getId(), user.getEmail(), tokens);
+	}
+
+	private static Set<String> tokens(String text) {
+
+		Set<String> tokens = new LinkedHashSet<>();
+		if (text == null) {
+			return tokens;
+		}
+
+		String plain = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+		for (String token : SEPARATORS.split(plain)) {
+			if (!token.isEmpty()) {
+				tokens.add(token);
+			}
+		}
+		return tokens;
+	}
+
+	// padded like pg_trgm, so the start of a token weighs more than its end
+	private static Set<String> trigrams(String token) {
+
+		String padded = "  " + token + " ";
+		Set<String> trigrams = new HashSet<>();
+		for (int i = 0; i + 3 <= padded.length(); i++) {
+			trigrams.add(padded.substring(i, i + 3));
+		}
+		return trigrams;
+	}
+
+	private void write(Consumer<Index> change) {
+		lock.writeLock().lock();
+		try {
+			change.accept(index);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// a rolled back change never reaches the index
+	private void afterCommit(Runnable change) {
+
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			change.run();
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				change.run();
+			}
+		});
+	}
+
+	@Getter
+	@AllArgsConstructor
+	public static class Hits {
+
+		private List<Integer> ids;
+		private int total;
+
+	}
+
+	@AllArgsConstructor
+	private static class Document {
+
+		private final Integer id;
+		private final String email;
+		private final Set<String> tokens;
+
+	}
+
+	/**
+	 * Every indexed user takes a slot and every distinct token a number,
+	 * small ints that postings and the scores of a query use instead of ids
+	 * and strings, so a query works on flat arrays rather than boxed maps.
+	 * Slots and numbers that fall free are reused.
+	 */
+	private static class Index {
+
+		private final List<Document> documents = new ArrayList<>();
+
+		private final Deque<Integer> freeSlots = new ArrayDeque<>();
+
+		private final Map<Integer, Integer> slots = new HashMap<>();
+
+		private final Map<String, Integer> ids = new HashMap<>();
+
+		private final NavigableMap<String, Token> tokens = new TreeMap<>();
+
+		private final List<Token> numbered = new ArrayList<>();
+
+		private final Deque<Integer> freeNumbers = new ArrayDeque<>();
+
+		// trigram to the numbers of the tokens that have it
+		private final Map<String, Postings> trigrams = new HashMap<>();
+
+		Hits search(Set<String> terms, int offset, int limit) {
+
+			int capacity = documents.size();
+			double[] scores = new double[capacity];
+			int[] matched = new int[capacity];
+
+			int round = 0;
+			for (String term : terms) {
+				double[] best = new double[capacity];
+				match(term, best);
+				int hits = 0;
+				for (int slot = 0; slot < capacity; slot++) {
+					if (best[slot] > 0 && matched[slot] == round) {
+						scores[slot] += best[slot];
+						matched[slot]++;
+						hits++;
+					}
+				}
+				round++;
+				if (hits == 0) {
+					return new Hits(List.of(), 0);
+				}
+			}
+
+			// only the first offset + limit users are ever ordered, the worst of them on top
+			Comparator<Integer> ranking = Comparator.<Integer>comparingDouble(slot -> scores[slot])
+					.thenComparing(slot -> documents.get(slot).id, Comparator.reverseOrder());
+			PriorityQueue<Integer> best = new PriorityQueue<>(ranking);
+			// a cursor past the end only has to rank every match
+			int size = Math.min(offset, capacity) + limit;
+			int total = 0;
+			for (int slot = 0; slot < capacity; slot++) {
+				if (matched[slot] != round) {
+					continue;
+				}
+				total++;
+				if (best.size() < size) {
+					best.add(slot);
+				}
+				else if (ranking.compare(slot, best.peek()) > 0) {
+					best.poll();
+					best.add(slot);
+				}
+			}
+
+			List<Integer> ranked = new ArrayList<>(best);
+			ranked.sort(ranking.reversed());
+
+			List<Integer> page = new ArrayList<>();
+			for (int i = offset; i < ranked.size(); i++) {
+				page.add(documents.get(ranked.get(i)).id);
+			}
+			return new Hits(page, total);
+		}
+
+		// the best score of every slot with a token that matches the term
+		private void match(String term, double[] best) {
+
+			Map<String, Token> prefixed = tokens.subMap(term, true, term + Character.MAX_VALUE, false);
+			for (Token token : prefixed.values()) {
+				token.users.raise(best, PREFIX_SCORE + term.length() / (double) token.text.length());
+			}
+
+			// a term that starts no token is taken as misspelt
+			if (!prefixed.isEmpty() || term.length() < MIN_FUZZY_LENGTH) {
+				return;
+			}
+
+			Set<String> termTrigrams = UserSearchIndex.trigrams(term);
+			int[] shared = new int[numbered.size()];
+			for (String trigram : termTrigrams) {
+				Postings numbers = trigrams.get(trigram);
+				if (numbers != null) {
+					numbers.count(shared);
+				}
+			}
+
+			// the similarity can only reach the threshold when enough of the term's own trigrams are shared
+			double required = SIMILARITY_THRESHOLD * termTrigrams.size();
+			for (int number = 0; number < shared.length; number++) {
+				int common = shared[number];
+				if (common == 0 || common < required) {
+					continue;
+				}
+				Token token = numbered.get(number);
+				double similarity = common / (double) (termTrigrams.size() + token.trigrams - common);
+				if (similarity >= SIMILARITY_THRESHOLD) {
+					token.users.raise(best, similarity);
+				}
+			}
+		}
+
+		void add(Document document) {
+
+			remove(document.id);
+
+			Integer slot = freeSlots.poll();
+			if (slot == null) {
+				slot = documents.size();
+				documents.add(document);
+			}
+			else {
+				documents.set(slot, document);
+			}
+			slots.put(document.id, slot);
+			ids.put(document.email, document.id);
+
+			for (String text : document.tokens) {
+				tokens.computeIfAbsent(text, this::newToken).users.add(slot);
+			}
+		}
+
+		private Token newToken(String text) {
+
+			Set<String> textTrigrams = UserSearchIndex.trigrams(text);
+
+			Integer number = freeNumbers.poll();
+			Token token = new Token(text, number == null ? numbered.size() : number, textTrigrams.size(), new Postings());
+			if (number == null) {
+				numbered.add(token);
+			}
+			else {
+				numbered.set(number, token);
+			}
+
+			for (String trigram : textTrigrams) {
+				trigrams.computeIfAbsent(trigram, key -> new Postings()).add(token.number);
+			}
+			return token;
+		}
+
+		void remove(int id) {
+
+			Integer slot = slots.remove(id);
+			if (slot == null) {
+				return;
+			}
+			Document document = documents.set(slot, null);
+			freeSlots.push(slot);
+			ids.remove(document.email, id);
+
+			for (String text : document.tokens) {
+				Token token = tokens.get(text);
+				token.users.remove(slot);
+				if (token.users.isEmpty()) {
+					removeToken(token);
+				}
+			}
+		}
+
+		private void removeToken(Token token) {
+
+			tokens.remove(token.text);
+			numbered.set(token.number, null);
+			freeNumbers.push(token.number);
+
+			for (String trigram : UserSearchIndex.trigrams(token.text)) {
+				Postings numbers = trigrams.get(trigram);
+				numbers.remove(token.number);
+				if (numbers.isEmpty()) {
+					trigrams.remove(trigram);
+				}
+			}
+		}
+
+		int size() {
+			return slots.size();
+		}
+
+		void clear() {
+			documents.clear();
+			freeSlots.clear();
+			slots.clear();
+			ids.clear();
+			tokens.clear();
+			numbered.clear();
+			freeNumbers.clear();
+			trigrams.clear();
+		}
+
+	}
+
+	@AllArgsConstructor
+	private static class Token {
+
+		private final String text;
+		private final int number;
+		private final int trigrams;
+		// the slots of the users that have the token
+		private final Postings users;
+
+	}
+
+	// a sorted set of small ints, user slots or token numbers
+	private static class Postings {
+
+		private int[] values = new int[1];
+
+		private int size;
+
+		void add(int value) {
+			int at = Arrays.binarySearch(values, 0, size, value);
+			if (at >= 0) {
+				return;
+			}
+			at = -at - 1;
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			System.arraycopy(values, at, values, at + 1, size - at);
+			values[at] = value;
+			size++;
+		}
+
+		void remove(int value) {
+			int at = Arrays.binarySearch(values, 0, size, value);
+			if (at >= 0) {
+				System.arraycopy(values, at + 1, values, at, size - at - 1);
+				size--;
+			}
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void raise(double[] scores, double score) {
+			for (int i = 0; i < size; i++) {
+				if (scores[values[i]] < score) {
+					scores[values[i]] = score;
+				}
+			}
+		}
+
+		void count(int[] counts) {
+			for (int i = 0; i < size; i++) {
+				counts[values[i]]++;
+			}
+		}
+
+	}
+
+}
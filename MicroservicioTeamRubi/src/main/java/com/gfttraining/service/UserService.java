@@ -1,32 +1,57 @@
 package com.gfttraining.service;
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
 import javax.persistence.EntityNotFoundException;
 import javax.transaction.Transactional;
 
-import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.data.crossstore.ChangeSetPersister.NotFoundException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.gfttraining.DTO.FavoriteChangesDTO;
+import com.gfttraining.DTO.LoyaltySummaryDTO;
 import com.gfttraining.DTO.Mapper;
+import com.gfttraining.DTO.ProductFavoritesDTO;
 import com.gfttraining.DTO.UserEntityDTO;
-import com.gfttraining.connection.RetrieveInformationFromExternalMicroservice;
+import com.gfttraining.DTO.UserPageDTO;
+import com.gfttraining.DTO.UserStatsDTO;
+import com.gfttraining.connection.CartServiceClient;
+import com.gfttraining.connection.ProductCatalogClient;
 import com.gfttraining.entity.CartEntity;
 import com.gfttraining.entity.FavoriteProduct;
-import com.gfttraining.entity.ProductEntity;
 import com.gfttraining.entity.UserEntity;
+import com.gfttraining.exception.CartServiceUnavailableException;
 import com.gfttraining.exception.DuplicateEmailException;
 import com.gfttraining.exception.DuplicateFavoriteException;
 import com.gfttraining.repository.FavoriteRepository;
@@ -38,28 +63,196 @@ import lombok.extern.slf4j.Slf4j;
 @Service
 public class UserService {
 
+	public static final int MAX_PAGE_SIZE = 1000;
+
+	public static final int MAX_SUMMARY_SIZE = 100;
+
+	public static final int MAX_FAVORITE_BATCH_SIZE = 1000;
+
+	public static final int MAX_TOP_SIZE = 100;
+
+	static final int EXPORT_FLUSH_INTERVAL = 500;
+
 	private UserRepository userRepository;
 
 	private FavoriteRepository favoriteRepository;
 
-	private ModelMapper modelMapper;
-	
-	private RetrieveInformationFromExternalMicroservice retrieveInformationFromExternalMicroservice;;
-
 	private Mapper mapper;
 
+	private ObjectMapper objectMapper;
+
+	private EntityManager entityManager;
+
+	private LoyaltyCache loyaltyCache;
+
+	private CartServiceClient cartServiceClient;
+
+	private FidelityPointsEngine fidelityPointsEngine;
+
+	private ProductCatalogClient productCatalogClient;
+
+	private FavoriteLeaderboard favoriteLeaderboard;
+
+	private EmailFilter emailFilter;
+
+	private UserSearchIndex userSearchIndex;
+
+	private UserStatsCache userStatsCache;
+
+	private TransactionTemplate transactionTemplate;
+
+	// cart lookups in flight, so a lookup for a missing user can be dropped without cancelling the shared summary
+	private final ConcurrentMap<Integer, CompletableFuture<List<CartEntity>>> cartLookups = new ConcurrentHashMap<>();
+
 	@Autowired
-	public UserService(UserRepository userRepository, FavoriteRepository favoriteRepository, ModelMapper modelMapper, RetrieveInformationFromExternalMicroservice retrieveInformationFromExternalMicroservice, Mapper mapper) {
+	public UserService(UserRepository userRepository, FavoriteRepository favoriteRepository, Mapper mapper,
+			ObjectMapper objectMapper, EntityManager entityManager, LoyaltyCache loyaltyCache,
+			CartServiceClient cartServiceClient, FidelityPointsEngine fidelityPointsEngine, ProductCatalogClient productCatalogClient,
+			FavoriteLeaderboard favoriteLeaderboard, EmailFilter emailFilter, UserSearchIndex userSearchIndex,
+			UserStatsCache userStatsCache, TransactionTemplate transactionTemplate) {
 		this.userRepository = userRepository;
 		this.favoriteRepository = favoriteRepository;
-		this.modelMapper = modelMapper;
-		this.retrieveInformationFromExternalMicroservice = retrieveInformationFromExternalMicroservice;
 		this.mapper = mapper;
+		this.objectMapper = objectMapper;
+		this.entityManager = entityManager;
+		this.loyaltyCache = loyaltyCache;
+		this.cartServiceClient = cartServiceClient;
+		this.fidelityPointsEngine = fidelityPointsEngine;
+		this.productCatalogClient = productCatalogClient;
+		this.favoriteLeaderboard = favoriteLeaderboard;
+		this.emailFilter = emailFilter;
+		this.userSearchIndex = userSearchIndex;
+		this.userStatsCache = userStatsCache;
+		this.transactionTemplate = transactionTemplate;
+	}
+
+	public UserPageDTO findPage(String cursor, int limit, boolean withTotal){
+
+		checkPageLimit(limit);
+
+		int afterId = KeysetCursor.decode(cursor);
+
+		// one extra row tells whether there is a next page without a count query
+		List<Integer> ids = userRepository.findIdsAfter(afterId, PageRequest.of(0, limit + 1));
+
+		Long total = withTotal ? userRepository.count() : null;
+
+		log.info("Found page of " + Math.min(ids.size(), limit) + " users after id " + afterId);
+
+		return toPage(ids, limit, total);
+	}
+
+	public UserPageDTO findUsersByFavoriteProduct(int productId, String cursor, int limit, boolean withTotal){
+
+		checkPageLimit(limit);
+
+		int afterId = KeysetCursor.decode(cursor);
+
+		List<Integer> ids = favoriteRepository.findUserIdsByProductIdAfter(productId, afterId, PageRequest.of(0, limit + 1));
+
+		Long total = withTotal ? favoriteRepository.countByProductId(productId) : null;
+
+		log.info("Found page of " + Math.min(ids.size(), limit) + " users with favorite product " + productId + " after id " + afterId);
+
+		return toPage(ids, limit, total);
+	}
+
+	/**
+	 * Ranked page of the users whose name, lastname or email match every
+	 * term of the query. Results are ranked rather than ordered by id, so
+	 * the cursor wraps how many results were already returned.
+	 */
+	public UserPageDTO searchUsers(String query, String cursor, int limit){
+
+		checkPageLimit(limit);
+
+		if(query == null || query.isBlank()) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "query cannot be blank");
+		}
+
+		// a cursor past every indexed user is past the end of any search
+		int offset = Math.min(KeysetCursor.decode(cursor), userSearchIndex.size());
+
+		UserSearchIndex.Hits hits = userSearchIndex.search(query, offset, limit);
+
+		// one query for the whole page, a user deleted since the search is left out
+		Map<Integer, UserEntity> found = new HashMap<>();
+		if(!hits.getIds().isEmpty()) {
+			for (UserEntity user : userRepository.findAllWithFavoritesByIdIn(hits.getIds())) {
+				found.put(user.getId(), user);
+			}
+		}
+		List<UserEntity> users = hits.getIds().stream()
+				.map(found::get)
+				.filter(Objects::nonNull)
+				.collect(Collectors.toList());
+
+		String next = (long) offset + limit < hits.getTotal() ? KeysetCursor.encode(offset + limit) : null;
+
+		log.info("Found " + users.size() + " of " + hits.getTotal() + " users matching " + query + " from " + offset);
+
+		return new UserPageDTO(users, next, (long) hits.getTotal());
+	}
+
+	public UserStatsDTO getUserStats(){
+		return userStatsCache.get();
 	}
 
-	public List<UserEntity> findAll(){
-		log.info("Findig all users");
-		return userRepository.findAll();
+	private void checkPageLimit(int limit) {
+		if(limit < 1 || limit > MAX_PAGE_SIZE) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + MAX_PAGE_SIZE);
+		}
+	}
+
+	private UserPageDTO toPage(List<Integer> ids, int limit, Long total) {
+
+		String next = null;
+		if(ids.size() > limit) {
+			ids = ids.subList(0, limit);
+			next = KeysetCursor.encode(ids.get(limit - 1));
+		}
+
+		// the users and all their favorites in one query, instead of one more query per user when the page is written
+		List<UserEntity> users = ids.isEmpty() ? List.of() : userRepository.findAllWithFavoritesByIdIn(ids);
+
+		return new UserPageDTO(users, next, total);
+	}
+
+	/**
+	 * Writes every user as one JSON document per line. Rows come from a
+	 * forward-only cursor and are detached once written, so neither the
+	 * persistence context nor the response grows with the table.
+	 */
+	@Transactional
+	public void exportUsers(OutputStream out, boolean withFavorites) throws IOException {
+
+		ObjectWriter writer = withFavorites
+				? objectMapper.writer()
+				: objectMapper.copy().addMixIn(UserEntity.class, UserWithoutFavorites.class).writer();
+		writer = writer.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+		long exported = 0;
+
+		try (Stream<UserEntity> users = withFavorites ? userRepository.streamAllWithFavorites() : userRepository.streamAll();
+				JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+			for (UserEntity user : (Iterable<UserEntity>) users::iterator) {
+				writer.writeValue(generator, user);
+				generator.writeRaw('\n');
+				entityManager.detach(user);
+				if (++exported % EXPORT_FLUSH_INTERVAL == 0) {
+					generator.flush();
+				}
+			}
+		}
+
+		log.info("Exported " + exported + " users");
+	}
+
+	@JsonIgnoreProperties("favorites")
+	private abstract static class UserWithoutFavorites {
 	}
 
 	public UserEntity findUserById(Integer id){
@@ -87,53 +280,90 @@ public class UserService {
 
 	public void saveAllUsers(List<UserEntity> usersList) {
 		userRepository.saveAll(usersList);
+		emailFilter.addedAll(usersList.stream().map(UserEntity::getEmail).collect(Collectors.toList()));
+		userSearchIndex.indexedAll(usersList);
+		favoriteLeaderboard.added(usersList.stream()
+				.flatMap(user -> favoriteProductIds(user).stream())
+				.collect(Collectors.toList()));
 		log.info("Saved all users to DB");
 	}
 
 	public void deleteAllUsers() {
 		userRepository.deleteAll();
+		loyaltyCache.invalidateAll();
+		favoriteLeaderboard.cleared();
+		emailFilter.cleared();
+		userSearchIndex.cleared();
 		log.info("Deleted all users");
 	}
 
+	@Transactional
 	public void deleteUserById(Integer id) {
-		try {
-			userRepository.deleteById(id);
-			log.info("Deleted user by ID");
-		} catch(Exception e) {
+
+		// the email and favorites come back from the delete, so the email filter and leaderboard can take them off
+		Optional<UserEntity> deleted = userRepository.deleteByIdWithFavorites(id);
+
+		if(deleted.isEmpty()) {
 			log.error("deleteUserById() -> coud not delete user with the ID: " + id);
 			throw new EntityNotFoundException("No se ha podido eliminar el usuario con el id: "+id+" de la base de datos");
 		}
+
+		loyaltyCache.invalidate(id);
+		List<Integer> productIds = favoriteProductIds(deleted.get());
+		favoriteLeaderboard.removed(productIds);
+		emailFilter.removed(deleted.get().getEmail());
+		userSearchIndex.removed(id);
+		log.info("Deleted user by ID with " + productIds.size() + " favorites");
 	}
 
 	public UserEntity createUser(UserEntity user) {
 
 		String email = user.getEmail();
 
-		if(userRepository.existsByEmail(email)) {
+		// almost every signup brings a new email, the filter answers those without a query
+		if(emailFilter.exists(email, userRepository::existsByEmail)) {
 			throw new DuplicateEmailException("The email " + email + " is already in use");
 		}
 
 		log.info("user " + user.getName() + " created");
 
-		return userRepository.save(user);
+		UserEntity createdUser;
+		try {
+			createdUser = userRepository.save(user);
+		} catch (DataIntegrityViolationException e) {
+			// the unique key on email is the final guard, against a concurrent signup with the same email
+			throw new DuplicateEmailException("The email " + email + " is already in use");
+		}
+		emailFilter.added(email);
+		userSearchIndex.indexed(user);
+		favoriteLeaderboard.added(favoriteProductIds(user));
+
+		return createdUser;
 
 	}
 
 	public UserEntity updateUserById(int id, UserEntity user) {
 
-		UserEntity existingUser = userRepository.findById(id)
-				.orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
-
-		if(userRepository.existsByEmail(user.getEmail())) {
+		// one UPDATE of the supplied columns, the unique key on email rejects an address taken by another user
+		UserEntity updatedUser;
+		try {
+			updatedUser = userRepository.updateSuppliedColumns(id, user)
+					.orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+		} catch (DuplicateKeyException e) {
 			throw new DuplicateEmailException("The email " + user.getEmail() + " is already in use");
 		}
-		user.setId(existingUser.getId());
+		// the UPDATE returns the user's own row, its favorites are a second read
+		updatedUser.setFavorites(new LinkedHashSet<>(favoriteRepository.findByUserId(id)));
 
-		modelMapper.map(user, existingUser);
+		// the previous email is left in the filter, a stale member only costs a database check until the next reload
+		if(user.getEmail() != null && !emailFilter.mightContain(updatedUser.getEmail())) {
+			emailFilter.added(updatedUser.getEmail());
+		}
+		userSearchIndex.indexed(updatedUser);
 
 		log.info("Updated user with id " + id);
 
-		return userRepository.save(existingUser);
+		return updatedUser;
 
 	}
 
@@ -152,56 +382,123 @@ public class UserService {
 	}
 
 	public UserEntityDTO getUserWithAvgSpentAndFidelityPoints(int id){
-		
-		List<CartEntity> carts = retrieveInformationFromExternalMicroservice.getExternalInformation("http://localhost:8082/carts/user/" + id,
-				new ParameterizedTypeReference<List<CartEntity>>() {});
 
-		return mapper.toUserWithAvgSpentAndFidelityPoints(findUserById(id), calculateAvgSpent(carts), getPoints(carts));
+		// the carts are fetched on the cart pool while the user is read on this thread
+		CompletableFuture<LoyaltySummaryDTO> loyalty = loyaltyCache.get(id, this::fetchLoyaltySummary);
+
+		UserEntity user;
+		try {
+			user = findUserById(id);
+		} catch (EntityNotFoundException e) {
+			// other callers may wait on the cached summary, they get it failed rather than cancelled
+			loyaltyCache.invalidate(id);
+			CompletableFuture<List<CartEntity>> carts = cartLookups.get(id);
+			if (carts != null) {
+				carts.cancel(true);
+			}
+			throw e;
+		}
+
+		LoyaltySummaryDTO summary = awaitLoyaltySummary(id, loyalty);
+		if (summary == null) {
+			return mapper.toUserWithoutLoyalty(user);
+		}
+		return mapper.toUserWithAvgSpentAndFidelityPoints(user, summary.getAverageSpent(), summary.getPoints());
 	}
 
+	private CompletableFuture<LoyaltySummaryDTO> fetchLoyaltySummary(int id) {
+
+		CompletableFuture<List<CartEntity>> carts = cartServiceClient.getCartsAsync(id);
+		cartLookups.put(id, carts);
+		carts.whenComplete((result, error) -> cartLookups.remove(id, carts));
 
-	public BigDecimal calculateAvgSpent(List<CartEntity> carts) {
+		return carts.thenApply(userCarts -> {
+			log.info("Calculated loyalty summary of user " + id + " from " + userCarts.size() + " carts");
+			return fidelityPointsEngine.score(userCarts);
+		});
+	}
 
-		BigDecimal totalSpent = BigDecimal.ZERO;
-		int itemsBought = 0;
+	// null when the cart service is known to be down, the user is then returned without loyalty data
+	private LoyaltySummaryDTO awaitLoyaltySummary(int id, CompletableFuture<LoyaltySummaryDTO> loyalty) {
 
-		for (CartEntity cartEntity : carts) {
-			List<ProductEntity> products = cartEntity.getProducts();
-			for (ProductEntity productEntity : products) {
-				totalSpent = totalSpent.add(productEntity.getTotalPrize());
-				itemsBought++;
+		try {
+			return loyalty.get(cartServiceClient.getTimeout().toNanos(), TimeUnit.NANOSECONDS);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CartServiceUnavailableException) {
+				log.error("Loyalty of user " + id + " unavailable: " + e.getCause().getMessage());
+				return null;
+			}
+			if (e.getCause() instanceof ResponseStatusException) {
+				throw (ResponseStatusException) e.getCause();
 			}
+			log.error("Carts of user " + id + " not retrieved: " + e.getCause().getMessage());
+		} catch (CancellationException e) {
+			log.error("Carts of user " + id + " not retrieved, lookup cancelled");
+		} catch (TimeoutException e) {
+			log.error("Carts of user " + id + " not retrieved in time");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		if (totalSpent != BigDecimal.valueOf(0)) {
-			return totalSpent.divide(BigDecimal.valueOf(itemsBought));
+		throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Couldn't connect with the microservice");
+	}
+
+	public List<UserEntityDTO> getUsersWithAvgSpentAndFidelityPoints(List<Integer> ids){
+
+		Set<Integer> uniqueIds = new LinkedHashSet<>(ids);
+		if(uniqueIds.isEmpty() || uniqueIds.size() > MAX_SUMMARY_SIZE) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Between 1 and " + MAX_SUMMARY_SIZE + " user ids are required");
 		}
-		return BigDecimal.valueOf(0);
-	}
-
-	public Integer getPoints(List<CartEntity> carts) {
-		int points = 0;
-		if (!carts.isEmpty()) {
-			for (CartEntity cartEntity : carts) {
-				List<ProductEntity> products = cartEntity.getProducts();
-				for (ProductEntity productEntity : products) {
-					BigDecimal sumSpent = productEntity.getTotalPrize();
-					if (sumSpent.compareTo(new BigDecimal("20")) >= 0 && sumSpent.compareTo(new BigDecimal("29.99")) <= 0) {
-						points +=1;
-					}
-					else if (sumSpent.compareTo(new BigDecimal("30")) >= 0 && sumSpent.compareTo(new BigDecimal("49.99")) <= 0) {
-						points +=3;
-					}
-					else if (sumSpent.compareTo(new BigDecimal("50")) >= 0 && sumSpent.compareTo(new BigDecimal("99.99")) <= 0) {
-						points +=5;    
-					}
-					else if (sumSpent.compareTo(new BigDecimal("100")) >= 0 ) {
-						points +=10;
-					}
-				}
 
+		Map<Integer, UserEntity> users = new HashMap<>();
+		for (UserEntity user : userRepository.findAllWithFavoritesByIdIn(uniqueIds)) {
+			users.put(user.getId(), user);
+		}
+
+		// every cart lookup is started before waiting on any of them
+		Map<Integer, CompletableFuture<LoyaltySummaryDTO>> summaries = new HashMap<>();
+		for (Integer id : users.keySet()) {
+			summaries.put(id, loyaltyCache.get(id, this::fetchLoyaltySummary));
+		}
+
+		long deadline = System.nanoTime() + cartServiceClient.getTimeout().toNanos();
+		List<UserEntityDTO> result = new ArrayList<>();
+		for (Integer id : uniqueIds) {
+			UserEntity user = users.get(id);
+			if (user != null) {
+				result.add(toUserSummary(user, summaries.get(id), deadline));
 			}
 		}
-		return points;
+
+		log.info("Returning " + result.size() + " of " + uniqueIds.size() + " requested user summaries");
+		return result;
+	}
+
+	private UserEntityDTO toUserSummary(UserEntity user, CompletableFuture<LoyaltySummaryDTO> summary, long deadline) {
+
+		try {
+			LoyaltySummaryDTO loyalty = summary.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			return mapper.toUserWithAvgSpentAndFidelityPoints(user, loyalty.getAverageSpent(), loyalty.getPoints());
+		} catch (TimeoutException e) {
+			// left running, so the summary is cached for the next page
+			log.error("Carts of user " + user.getId() + " not retrieved in time");
+		} catch (ExecutionException e) {
+			log.error("Carts of user " + user.getId() + " not retrieved: " + e.getCause().getMessage());
+		} catch (CancellationException e) {
+			log.error("Carts of user " + user.getId() + " not retrieved, lookup cancelled");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return mapper.toUserWithoutLoyalty(user);
+	}
+
+	public void evictLoyaltySummary(int id) {
+		loyaltyCache.invalidate(id);
+		log.info("Evicted cached loyalty summary of user " + id);
+	}
+
+	public void evictAllLoyaltySummaries() {
+		loyaltyCache.invalidateAll();
+		log.info("Evicted all cached loyalty summaries");
 	}
 
 
@@ -210,10 +507,9 @@ public class UserService {
 		UserEntity existingUser = userRepository.findById(userId)
 				.orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User with id " + userId + " not found"));
 
-		FavoriteProduct favorite = new FavoriteProduct(userId, productId);
-
-		if(!favoriteRepository.existsByUserIdAndProductId(userId, productId)) {
-			favoriteRepository.save(favorite);
+		// insert-if-absent, so two identical requests cannot both pass an existence check and hit the unique key
+		if(favoriteRepository.insertAllIfAbsent(List.of(new FavoriteProduct(userId, productId)))[0] > 0) {
+			favoriteLeaderboard.added(List.of(productId));
 			log.info("Favorite product saved on database");
 		}
 		else {
@@ -223,48 +519,117 @@ public class UserService {
 		return existingUser;
 	}
 
+	public FavoriteChangesDTO addFavoriteProducts(int userId, List<Integer> productIds) {
+
+		List<Integer> ids = toFavoriteBatch(productIds);
+
+		// checked before the transaction opens, so no connection is held while the product service answers
+		List<Integer> missing = productCatalogClient.missingProducts(ids);
+		if(!missing.isEmpty()) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Products with ids " + missing + " not found");
+		}
+
+		FavoriteChangesDTO changes = transactionTemplate.execute(status -> {
+			int[] counts;
+			try {
+				counts = favoriteRepository.insertAllIfAbsent(toFavorites(userId, ids));
+			} catch (DataIntegrityViolationException e) {
+				// duplicates are skipped by the insert, so the only constraint left to fail is the user's foreign key
+				throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User with id " + userId + " not found");
+			}
+
+			FavoriteChangesDTO added = toFavoriteChanges(userId, ids, counts);
+			favoriteLeaderboard.added(added.getChanged());
+			return added;
+		});
+		log.info(changes.getChanged().size() + " favorite products added for user with id " + userId);
+
+		return changes;
+	}
+
 	@Transactional
-	public void deleteFavoriteProduct(int userId, int productId) {
+	public FavoriteChangesDTO deleteFavoriteProducts(int userId, List<Integer> productIds) {
+
+		List<Integer> ids = toFavoriteBatch(productIds);
+
+		FavoriteChangesDTO changes = toFavoriteChanges(userId, ids, favoriteRepository.deleteAllByUserAndProduct(toFavorites(userId, ids)));
+		favoriteLeaderboard.removed(changes.getChanged());
+		log.info(changes.getChanged().size() + " favorite products removed for user with id " + userId);
+
+		return changes;
+	}
+
+	private List<Integer> favoriteProductIds(UserEntity user) {
 
-		if(favoriteRepository.existsByUserIdAndProductId(userId, productId)) {
-			favoriteRepository.deleteByUserIdAndProductId(userId, productId);
-			log.info("Favorite product deleted on database");
+		if(user.getFavorites() == null) {
+			return List.of();
 		}
-		else {
+
+		return user.getFavorites().stream()
+				.map(FavoriteProduct::getProductId)
+				.filter(Objects::nonNull)
+				.collect(Collectors.toList());
+	}
+
+	private List<Integer> toFavoriteBatch(List<Integer> productIds) {
+
+		if(productIds.isEmpty() || productIds.size() > MAX_FAVORITE_BATCH_SIZE) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Between 1 and " + MAX_FAVORITE_BATCH_SIZE + " product ids are required");
+		}
+		if(productIds.stream().anyMatch(Objects::isNull)) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Product ids cannot be null");
+		}
+
+		return new ArrayList<>(new LinkedHashSet<>(productIds));
+	}
+
+	private List<FavoriteProduct> toFavorites(int userId, List<Integer> productIds) {
+		return productIds.stream()
+				.map(productId -> new FavoriteProduct(userId, productId))
+				.collect(Collectors.toList());
+	}
+
+	private FavoriteChangesDTO toFavoriteChanges(int userId, List<Integer> productIds, int[] counts) {
+
+		List<Integer> changed = new ArrayList<>();
+		List<Integer> unchanged = new ArrayList<>();
+		for (int i = 0; i < productIds.size(); i++) {
+			(counts[i] > 0 ? changed : unchanged).add(productIds.get(i));
+		}
+
+		return new FavoriteChangesDTO(userId, changed, unchanged);
+	}
+
+	@Transactional
+	public void deleteFavoriteProduct(int userId, int productId) {
+
+		if(favoriteRepository.deleteByUserIdAndProductId(userId, productId) == 0) {
 			throw new EmptyResultDataAccessException("User with id " + userId + " does not have product with id " + productId + " as favorite", 1);
 		}
+
+		favoriteLeaderboard.removed(List.of(productId));
+		log.info("Favorite product deleted on database");
 	}
 
 	@Transactional
 	public void deleteFavoriteProductFromAllUsers(int productId) {
 
-		if(favoriteRepository.existsByProductId(productId)) {
-			favoriteRepository.deleteByProductId(productId);
-			log.info("Favorites of that product deleted on database");
-		}
-		else {
+		int deleted = favoriteRepository.deleteByProductId(productId);
+		if(deleted == 0) {
 			throw new EmptyResultDataAccessException("Product " + productId + " is not in the favorites of any user", 1);
 		}
-	}
 
+		favoriteLeaderboard.productRemoved(productId);
+		log.info(deleted + " favorites of product " + productId + " deleted on database");
+	}
 
+	public List<ProductFavoritesDTO> getTopFavoriteProducts(int n) {
 
-	public ResponseEntity<Void> saveAllImportedUsers(MultipartFile file) {
-		try {
-			deleteAllUsers();
-			ObjectMapper objectMapper = new ObjectMapper();
-			List<UserEntity> users = objectMapper.readValue(file.getBytes(), new TypeReference<List<UserEntity>>(){});
-			saveAllUsers(users);
-			log.info("Users saved on database by file");
-			return new ResponseEntity<>(HttpStatus.CREATED);
-		} catch (Exception e) {
-			e.printStackTrace();
-			log.error("Error saving users to database by file");
-			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+		if(n < 1 || n > MAX_TOP_SIZE) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "n must be between 1 and " + MAX_TOP_SIZE);
 		}
 
+		return favoriteLeaderboard.top(n);
 	}
 
-
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,109 @@
+package com.gfttraining.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import com.gfttraining.DTO.UserStatsDTO;
+import com.gfttraining.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * User counts per country and payment method, so a storm of dashboard
+ * refreshes runs the GROUP BY once rather than once per request. Callers
+ * arriving while the counts are computed wait for that single computation.
+ * Once the counts are older than refresh-after they are recomputed in the
+ * background and served meanwhile; counts older than the TTL are never
+ * served. Background recomputations run on a single thread of their own.
+ * The cached counts are shared by every caller, so their maps are read-only.
+ * Hits, misses and loads are published as cache.* metrics.
+ */
+@Slf4j
+@Component
+public class UserStatsCache implements MeterBinder {
+
+	private static final String KEY = "stats";
+
+	private UserRepository userRepository;
+
+	private ThreadPoolTaskExecutor refreshExecutor;
+
+	private final LoadingCache<String, UserStatsDTO> stats;
+
+	@Autowired
+	public UserStatsCache(UserRepository userRepository, @Value("${users.stats-cache.ttl:1m}") Duration ttl,
+			@Value("${users.stats-cache.refresh-after:5s}") Duration refreshAfter) {
+		this(userRepository, ttl, refreshAfter, refreshExecutor());
+	}
+
+	private UserStatsCache(UserRepository userRepository, Duration ttl, Duration refreshAfter, ThreadPoolTaskExecutor refreshExecutor) {
+		this(userRepository, ttl, refreshAfter, Ticker.systemTicker(), refreshExecutor);
+		this.refreshExecutor = refreshExecutor;
+	}
+
+	UserStatsCache(UserRepository userRepository, Duration ttl, Duration refreshAfter, Ticker ticker, Executor executor) {
+		this.userRepository = userRepository;
+		this.stats = Caffeine.newBuilder()
+				.expireAfterWrite(ttl)
+				.refreshAfterWrite(refreshAfter)
+				.ticker(ticker)
+				.executor(executor)
+				.recordStats()
+				.build(key -> compute());
+	}
+
+	// one key, so there is never more than one recomputation to run
+	private static ThreadPoolTaskExecutor refreshExecutor() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(1);
+		executor.setMaxPoolSize(1);
+		executor.setQueueCapacity(1);
+		executor.setThreadNamePrefix("user-stats-");
+		executor.initialize();
+		return executor;
+	}
+
+	public UserStatsDTO get() {
+		return stats.get(KEY);
+	}
+
+	private UserStatsDTO compute() {
+
+		UserStatsDTO computed = userRepository.countByCountryAndPaymentMethod();
+		computed.setCountries(Collections.unmodifiableMap(computed.getCountries()));
+		computed.setPaymentMethods(Collections.unmodifiableMap(computed.getPaymentMethods()));
+		computed.setComputedAt(LocalDateTime.now());
+
+		log.info("Computed statistics of " + computed.getTotal() + " users");
+		return computed;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		CaffeineCacheMetrics.monitor(registry, stats, "user-stats");
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (refreshExecutor != null) {
+			refreshExecutor.shutdown();
+		}
+	}
+
+}
@@ -10,6 +10,10 @@ CREATE TABLE user (
     UNIQUE KEY (email)
 );
 
+CREATE INDEX user_name ON user (name);
+
+CREATE INDEX user_country_paymentmethod ON user (country, paymentmethod);
+
 CREATE TABLE favoriteproduct(
     id INT NOT NULL AUTO_INCREMENT,
     user_id INT NOT NULL,
@@ -19,5 +23,23 @@ CREATE TABLE favoriteproduct(
     UNIQUE KEY (user_id, product_id)
 );
 
+CREATE INDEX favoriteproduct_product_id_user_id ON favoriteproduct (product_id, user_id);
+
+CREATE TABLE user_staging (
+    email VARCHAR(255) NOT NULL,
+    name VARCHAR(255) NOT NULL,
+    lastname VARCHAR(255) NOT NULL,
+    address VARCHAR(255) NOT NULL,
+    country VARCHAR(255) NOT NULL,
+    paymentmethod VARCHAR(255),
+    PRIMARY KEY (email)
+);
+
+CREATE TABLE favoriteproduct_staging (
+    email VARCHAR(255) NOT NULL,
+    product_id INT NOT NULL,
+    PRIMARY KEY (email, product_id)
+);
+
 
 
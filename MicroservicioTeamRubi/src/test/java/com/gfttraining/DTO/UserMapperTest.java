@@ -0,0 +1,48 @@
+package com.gfttraining.DTO;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.gfttraining.entity.FavoriteProduct;
+import com.gfttraining.entity.UserEntity;
+
+class UserMapperTest {
+
+	private UserMapper userMapper = new UserMapperImpl();
+
+	private Mapper mapper = new Mapper(userMapper);
+
+	UserEntity userModel;
+
+	@BeforeEach
+	public void createUser() {
+		userModel = new UserEntity("pepe@pepe.com", "Pepito", "Perez", "calle falsa", "SPAIN");
+		userModel.setId(1);
+		userModel.setPaymentmethod("VISA");
+		userModel.addFavorite(new FavoriteProduct(1, 7));
+	}
+
+	@Test
+	void toUserWithAvgSpentAndFidelityPoints_test() {
+
+		UserEntityDTO result = mapper.toUserWithAvgSpentAndFidelityPoints(userModel, BigDecimal.valueOf(2000, 2), 3);
+
+		assertThat(result).isEqualTo(new UserEntityDTO(1, "pepe@pepe.com", "Pepito", "Perez", "calle falsa", "SPAIN", "VISA",
+				BigDecimal.valueOf(2000, 2), 3, userModel.getFavorites(), true));
+	}
+
+	@Test
+	void toUserWithoutLoyalty_test() {
+
+		UserEntityDTO result = mapper.toUserWithoutLoyalty(userModel);
+
+		assertThat(result.isLoyaltyAvailable()).isFalse();
+		assertThat(result.getAverageSpent()).isNull();
+		assertThat(result.getFavorites()).containsExactlyElementsOf(userModel.getFavorites());
+	}
+
+}
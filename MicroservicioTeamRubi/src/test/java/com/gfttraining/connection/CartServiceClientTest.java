@@ -0,0 +1,73 @@
+package com.gfttraining.connection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.gfttraining.entity.CartEntity;
+import com.gfttraining.exception.CartServiceUnavailableException;
+
+@ExtendWith(MockitoExtension.class)
+class CartServiceClientTest {
+
+	private static final String CARTS_URL = "http://localhost:8082/carts/user/";
+
+	@Mock
+	private RetrieveInformationFromExternalMicroservice retrieveInformationFromExternalMicroservice;
+
+	private CartServiceClient cartServiceClient;
+
+	@BeforeEach
+	void setUp() {
+		CartServiceProperties properties = new CartServiceProperties();
+		properties.setUrl(CARTS_URL);
+		properties.getFanOut().setWorkers(2);
+		properties.getCircuitBreaker().setSlidingWindowSize(4);
+		properties.getCircuitBreaker().setMinimumNumberOfCalls(4);
+		cartServiceClient = new CartServiceClient(retrieveInformationFromExternalMicroservice, properties);
+	}
+
+	@AfterEach
+	void tearDown() {
+		cartServiceClient.shutdown();
+	}
+
+	@Test
+	void getCartsAsync_test() throws Exception {
+
+		List<CartEntity> carts = Arrays.asList(new CartEntity());
+		when(retrieveInformationFromExternalMicroservice.getExternalInformation(eq(CARTS_URL + 12), any())).thenReturn(carts);
+
+		assertThat(cartServiceClient.getCartsAsync(12).get(1, TimeUnit.SECONDS)).isEqualTo(carts);
+	}
+
+	@Test
+	void getCartsAsyncWithUnavailableService_test() {
+
+		when(retrieveInformationFromExternalMicroservice.getExternalInformation(eq(CARTS_URL + 12), any()))
+		.thenThrow(new ResponseStatusException(HttpStatus.NOT_FOUND, "Couldn't connect with the microservice"));
+
+		assertThatThrownBy(() -> cartServiceClient.getCartsAsync(12).get(1, TimeUnit.SECONDS))
+		.isInstanceOf(ExecutionException.class)
+		.hasCauseInstanceOf(ResponseStatusException.class);
+	}
+
+}
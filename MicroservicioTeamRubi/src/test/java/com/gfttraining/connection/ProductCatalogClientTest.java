@@ -0,0 +1,200 @@
+package com.gfttraining.connection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@ExtendWith(MockitoExtension.class)
+class ProductCatalogClientTest {
+
+	private static final String PRODUCTS_URL = "http://localhost:8081/products";
+
+	@Mock
+	private RestTemplate restTemplate;
+
+	private AtomicLong nanos = new AtomicLong();
+
+	private ThreadPoolTaskExecutor lookupExecutor;
+
+	private ProductCatalogClient productCatalogClient;
+
+	@BeforeEach
+	void setUp() {
+		lookupExecutor = new ThreadPoolTaskExecutor();
+		lookupExecutor.setCorePoolSize(4);
+		lookupExecutor.setMaxPoolSize(4);
+		lookupExecutor.initialize();
+		productCatalogClient = new ProductCatalogClient(restTemplate, PRODUCTS_URL, 100, Duration.ofHours(1), Duration.ofSeconds(30),
+				Duration.ofMinutes(5), true, nanos::get, Runnable::run, lookupExecutor);
+	}
+
+	@AfterEach
+	void tearDown() {
+		productCatalogClient.shutdown();
+	}
+
+	private void advance(Duration duration) {
+		nanos.addAndGet(duration.toNanos());
+	}
+
+	@Test
+	void productExistsIsCached_test() {
+
+		when(restTemplate.getForEntity(PRODUCTS_URL + "/id/2", String.class)).thenReturn(ResponseEntity.ok("product"));
+
+		assertThat(productCatalogClient.productExists(2)).isTrue();
+		assertThat(productCatalogClient.productExists(2)).isTrue();
+
+		verify(restTemplate, times(1)).getForEntity(PRODUCTS_URL + "/id/2", String.class);
+	}
+
+	@Test
+	void missingProductsChecksOnlyUncachedIds_test() {
+
+		when(restTemplate.getForEntity(PRODUCTS_URL + "/id/2", String.class)).thenReturn(ResponseEntity.ok("product"));
+		when(restTemplate.getForEntity(PRODUCTS_URL + "/id/3", String.class)).thenReturn(ResponseEntity.ok("product"));
+		when(restTemplate.getForEntity(PRODUCTS_URL + "/id/200", String.class))
+		.thenThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", null, null, null));
+
+		assertThat(productCatalogClient.productExists(2)).isTrue();
+		assertThat(productCatalogClient.missingProducts(List.of(200, 2, 3))).containsExactly(200);
+
+		verify(restTemplate, times(1)).getForEntity(PRODUCTS_URL + "/id/2", String.class);
+		verify(restTemplate, times(1)).getForEntity(PRODUCTS_URL + "/id/3", String.class);
+	}
+
+	@Test
+	void missingProductsAreLookedUpConcurrently_test() {
+
+		CountDownLatch inFlight = new CountDownLatch(4);
+		when(restTemplate.getForEntity(anyString(), eq(String.class))).thenAnswer(invocation -> {
+			inFlight.countDown();
+			// answers only once all four lookups are waiting at the same time
+			if (!inFlight.await(5, TimeUnit.SECONDS)) {
+				throw new ResourceAccessException("Lookups ran one after another");
+			}
+			return ResponseEntity.ok("product");
+		});
+
+		assertThat(productCatalogClient.missingProducts(List.of(1, 2, 3, 4))).isEmpty();
+		verify(restTemplate, times(4)).getForEntity(anyString(), eq(String.class));
+	}
+
+	@Test
+	void missingProductsFailWhenOneLookupFails_test() {
+
+		// the lookup of 2 may be cancelled before it starts
+		lenient().when(restTemplate.getForEntity(PRODUCTS_URL + "/id/2", String.class)).thenReturn(ResponseEntity.ok("product"));
+		when(restTemplate.getForEntity(PRODUCTS_URL + "/id/3", String.class)).thenThrow(new ResourceAccessException("Connection refused"));
+
+		assertThatThrownBy(() -> productCatalogClient.missingProducts(List.of(2, 3)))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("product microservice");
+	}
+
+	@Test
+	void missingProductExpiresSooner_test() {
+
+		when(restTemplate.getForEntity(PRODUCTS_URL + "/id/200", String.class))
+		.thenThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", null, null, null));
+
+		assertThat(productCatalogClient.productExists(200)).isFalse();
+		advance(Duration.ofSeconds(10));
+		assertThat(productCatalogClient.productExists(200)).isFalse();
+		advance(Duration.ofSeconds(30));
+		assertThat(productCatalogClient.productExists(200)).isFalse();
+
+		verify(restTemplate, times(2)).getForEntity(PRODUCTS_URL + "/id/200", String.class);
+	}
+
+	@Test
+	void failedRefreshKeepsExistingProduct_test() {
+
+		when(restTemplate.getForEntity(PRODUCTS_URL + "/id/2", String.class))
+		.thenReturn(ResponseEntity.ok("product"))
+		.thenThrow(new ResourceAccessException("Connection refused"));
+
+		assertThat(productCatalogClient.productExists(2)).isTrue();
+		advance(Duration.ofMinutes(10));
+
+		assertThat(productCatalogClient.productExists(2)).isTrue();
+		verify(restTemplate, times(2)).getForEntity(PRODUCTS_URL + "/id/2", String.class);
+	}
+
+	@Test
+	void refreshRunsOnLookupPool_test() throws Exception {
+
+		ProductCatalogClient client = new ProductCatalogClient(restTemplate, PRODUCTS_URL, 100, Duration.ofHours(1), Duration.ofSeconds(30),
+				Duration.ofMillis(1), false, 1, 10);
+		List<String> threads = new CopyOnWriteArrayList<>();
+		when(restTemplate.getForEntity(PRODUCTS_URL + "/id/2", String.class)).thenAnswer(invocation -> {
+			threads.add(Thread.currentThread().getName());
+			return ResponseEntity.ok("product");
+		});
+
+		try {
+			assertThat(client.productExists(2)).isTrue();
+			Thread.sleep(10);
+			assertThat(client.productExists(2)).isTrue();
+
+			verify(restTemplate, timeout(1000).times(2)).getForEntity(PRODUCTS_URL + "/id/2", String.class);
+			assertThat(threads.get(1)).startsWith("product-lookup-");
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	@Test
+	void productServiceDown_test() {
+
+		when(restTemplate.getForEntity(PRODUCTS_URL + "/id/3", String.class)).thenThrow(new ResourceAccessException("Connection refused"));
+
+		assertThatThrownBy(() -> productCatalogClient.productExists(3))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("product microservice");
+	}
+
+	@Test
+	void warmUp_test() throws Exception {
+
+		when(restTemplate.getForObject(eq(PRODUCTS_URL), eq(JsonNode.class)))
+		.thenReturn(new ObjectMapper().readTree("[{\"id\": 1}, {\"id\": 2}]"));
+
+		productCatalogClient.warmUp();
+
+		assertThat(productCatalogClient.productExists(1)).isTrue();
+		assertThat(productCatalogClient.productExists(2)).isTrue();
+		verify(restTemplate, times(0)).getForEntity(PRODUCTS_URL + "/id/1", String.class);
+	}
+
+}
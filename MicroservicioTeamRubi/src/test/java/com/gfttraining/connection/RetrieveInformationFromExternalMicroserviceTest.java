@@ -0,0 +1,59 @@
+package com.gfttraining.connection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.gfttraining.entity.CartEntity;
+
+@ExtendWith(MockitoExtension.class)
+class RetrieveInformationFromExternalMicroserviceTest {
+
+	private static final String CARTS_URL = "http://localhost:8082/carts/user/1";
+
+	private static final ParameterizedTypeReference<List<CartEntity>> CART_LIST = new ParameterizedTypeReference<List<CartEntity>>() {};
+
+	@Mock
+	private RestTemplate restTemplate;
+
+	@InjectMocks
+	private RetrieveInformationFromExternalMicroservice retrieveInformationFromExternalMicroservice;
+
+	@Test
+	void getExternalInformation_test() {
+
+		List<CartEntity> carts = Arrays.asList(new CartEntity());
+		when(restTemplate.exchange(eq(CARTS_URL), eq(HttpMethod.GET), isNull(), eq(CART_LIST))).thenReturn(ResponseEntity.ok(carts));
+
+		assertThat(retrieveInformationFromExternalMicroservice.getExternalInformation(CARTS_URL, CART_LIST)).isEqualTo(carts);
+	}
+
+	@Test
+	void getExternalInformationWithTimeout_test() {
+
+		when(restTemplate.exchange(eq(CARTS_URL), eq(HttpMethod.GET), isNull(), eq(CART_LIST)))
+		.thenThrow(new ResourceAccessException("Read timed out"));
+
+		assertThatThrownBy(() -> retrieveInformationFromExternalMicroservice.getExternalInformation(CARTS_URL, CART_LIST))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("Couldn't connect");
+	}
+
+}
@@ -4,18 +4,16 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.anyInt;
-import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
-import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
-import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -25,14 +23,30 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.mock.web.MockMultipartFile;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
-
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gfttraining.DTO.FavoriteChangesDTO;
+import com.gfttraining.DTO.ImportJobDTO;
+import com.gfttraining.DTO.ProductFavoritesDTO;
+import com.gfttraining.DTO.UserBatchResultDTO;
+import com.gfttraining.DTO.UserEntityDTO;
+import com.gfttraining.DTO.UserPageDTO;
+import com.gfttraining.DTO.UserStatsDTO;
+import com.gfttraining.connection.ProductCatalogClient;
 import com.gfttraining.entity.FavoriteProduct;
 import com.gfttraining.entity.UserEntity;
+import com.gfttraining.service.ImportJobState;
+import com.gfttraining.service.ImportMode;
+import com.gfttraining.service.ImportJob;
+import com.gfttraining.service.ImportJobService;
+import com.gfttraining.service.UserBatchStatus;
+import com.gfttraining.service.UserImportService;
 import com.gfttraining.service.UserService;
 
 
@@ -43,7 +57,13 @@ class UserControllerTest {
 	private UserService userService;
 
 	@Mock
-	private RestTemplate restTemplate;
+	private ImportJobService importJobService;
+
+	@Mock
+	private UserImportService userImportService;
+
+	@Mock
+	private ProductCatalogClient productCatalogClient;
 
 	@InjectMocks
 	UserController userController;
@@ -59,10 +79,58 @@ class UserControllerTest {
 	void getAllUsers_test() throws Exception {
 
 		List<UserEntity> users = Arrays.asList(userModel);
-		when(userService.findAll()).thenReturn(users);
+		when(userService.findPage(null, 100, false)).thenReturn(new UserPageDTO(users, null, null));
+
+		UserPageDTO existingUsers = userController.getAllUsers(null, 100, false);
+		assertThat(existingUsers.getUsers()).containsAll(users);
+
+	}
+
+	@Test
+	void getUsersByFavoriteProduct_test() {
+
+		UserPageDTO expectedPage = new UserPageDTO(List.of(userModel), null, 1L);
+		when(userService.findUsersByFavoriteProduct(3, null, 100, true)).thenReturn(expectedPage);
+
+		assertThat(userController.getUsersByFavoriteProduct(3, null, 100, true)).isEqualTo(expectedPage);
+	}
+
+	@Test
+	void getUserStats_test() {
+
+		UserStatsDTO stats = new UserStatsDTO(1, Map.of("SPAIN", 1L), Map.of("VISA", 1L), null);
+		when(userService.getUserStats()).thenReturn(stats);
+
+		assertThat(userController.getUserStats()).isEqualTo(stats);
+	}
+
+	@Test
+	void searchUsers_test() {
 
-		List<UserEntity> existingUsers = userController.getAllUsers();
-		assertThat(existingUsers).containsAll(users);
+		UserPageDTO expectedPage = new UserPageDTO(List.of(userModel), null, 1L);
+		when(userService.searchUsers("pep", null, 20)).thenReturn(expectedPage);
+
+		assertThat(userController.searchUsers("pep", null, 20)).isEqualTo(expectedPage);
+	}
+
+	@Test
+	void getTopFavoriteProducts_test() {
+
+		List<ProductFavoritesDTO> top = List.of(new ProductFavoritesDTO(5, 3));
+		when(userService.getTopFavoriteProducts(10)).thenReturn(top);
+
+		assertThat(userController.getTopFavoriteProducts(10)).isEqualTo(top);
+	}
+
+	@Test
+	void exportUsers_test() throws Exception {
+
+		ResponseEntity<StreamingResponseBody> response = userController.exportUsers(true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		response.getBody().writeTo(out);
+
+		assertThat(response.getHeaders().getContentType()).isEqualTo(MediaType.APPLICATION_NDJSON);
+		verify(userService, times(1)).exportUsers(out, true);
 
 	}
 
@@ -75,36 +143,67 @@ class UserControllerTest {
 
 	}
 
+	@Test
+	void getUsersWithAvgSpentAndFidelityPoints_test() {
+
+		List<UserEntityDTO> summaries = Arrays.asList(new UserEntityDTO(1, "pepe@pepe.com", "Pepito", "Perez", "calle falsa", "SPAIN",
+				"VISA", BigDecimal.valueOf(20), 1, null, true));
+		when(userService.getUsersWithAvgSpentAndFidelityPoints(Arrays.asList(1, 2))).thenReturn(summaries);
+
+		assertThat(userController.getUsersWithAvgSpentAndFidelityPoints(Arrays.asList(1, 2))).isEqualTo(summaries);
+
+	}
+
+	@Test
+	void evictLoyaltySummary_test() {
+
+		ResponseEntity<Void> response = userController.evictLoyaltySummary(1);
+
+		verify(userService, times(1)).evictLoyaltySummary(1);
+		assertEquals(HttpStatus.NO_CONTENT, response.getStatusCode());
+
+	}
+
 	@Test
 	void importUsersByFile() throws Exception{
 
 		MultipartFile file = Mockito.mock(MultipartFile.class);
+		ImportJob job = new ImportJob("job-1", ImportMode.MERGE);
 
-		Mockito.doNothing().when(userService).deleteAllUsers();
-		Mockito.doNothing().when(userService).saveAllUsers(Mockito.anyList());
+		Mockito.when(importJobService.submit(file, ImportMode.MERGE)).thenReturn(job);
 
-		byte[] content = "[{\"email\": \"user@gmail.com\", \"name\": \"pedro\", \"lastname\": \"soler\", \"address\": \"monzon\", \"paymentmethod\": \"VISA\"}, {\"email\": \"user@gmail.com\", \"name\": \"pedro\", \"lastname\": \"soler\", \"address\": \"monzon\", \"paymentmethod\": \"VISA\"}]".getBytes();
-		Mockito.when(file.getBytes()).thenReturn(content);
+		ResponseEntity<ImportJobDTO> response = userController.saveAllImportedUsers(file, ImportMode.MERGE);
 
-		ResponseEntity<Void> response = userController.saveAllImportedUsers(file);
+		Mockito.verify(importJobService, Mockito.times(1)).submit(file, ImportMode.MERGE);
+		assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+		assertEquals("/users/import/job-1", response.getHeaders().getLocation().toString());
+		assertEquals(ImportJobState.QUEUED, response.getBody().getState());
 
-		Mockito.verify(userService, Mockito.times(1)).deleteAllUsers();
-		Mockito.verify(userService, Mockito.times(1)).saveAllUsers(Mockito.anyList());
-		assertEquals(HttpStatus.CREATED, response.getStatusCode());
+	}
+
+	@Test
+	void getImportJob_test() {
+
+		when(importJobService.findJob("job-1")).thenReturn(new ImportJob("job-1", ImportMode.REPLACE));
+
+		ImportJobDTO job = userController.getImportJob("job-1");
+
+		assertEquals("job-1", job.getId());
+		assertEquals(ImportMode.REPLACE, job.getReport().getMode());
 
 	}
 
-	public void testSaveAllImportedUsersWithError() throws IOException {
+	@Test
+	void createUsers_test() {
 
-		MultipartFile file = new MockMultipartFile("file", new byte[0]);
+		List<JsonNode> users = List.of(new ObjectMapper().valueToTree(userModel));
+		List<UserBatchResultDTO> results = List.of(new UserBatchResultDTO(0, UserBatchStatus.CREATED, 1, null));
 
-		doThrow(new RuntimeException("Error al eliminar los usuarios")).when(userService).deleteAllUsers();
+		when(userImportService.createUsers(users)).thenReturn(results);
 
-		ResponseEntity<Void> response = userController.saveAllImportedUsers(file);
-		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
+		assertThat(userController.createUsers(users)).isEqualTo(results);
+		verify(userImportService, times(1)).createUsers(users);
 
-		verify(userService, times(1)).deleteAllUsers();
-		verifyNoMoreInteractions(userService);
 	}
 
 	@Test
@@ -125,7 +224,7 @@ class UserControllerTest {
 
 		ResponseEntity<UserEntity> response = userController.updateUserById(1, userModel);
 
-		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
 		assertThat(response.getBody()).isEqualTo(userModel);
 
 	}
@@ -153,11 +252,8 @@ class UserControllerTest {
 
 		when(userService.addFavoriteProduct(anyInt(), anyInt())).thenReturn(userModel);
 
-		//mocking http request
-		ResponseEntity<String> responseEntity = new ResponseEntity<String>("Datos de prueba", HttpStatus.OK);
-
-		when(restTemplate.getForEntity(anyString(), eq(String.class)))
-		.thenReturn(responseEntity);
+		//mocking product catalog
+		when(productCatalogClient.productExists(productId)).thenReturn(true);
 
 		ResponseEntity<UserEntity> response = userController.addFavoriteProduct(1, productId);
 
@@ -173,8 +269,7 @@ class UserControllerTest {
 
 		int productId = 200;
 
-		when(restTemplate.getForEntity(anyString(), eq(String.class)))
-		.thenReturn(new ResponseEntity<String>("",HttpStatus.NOT_FOUND));
+		when(productCatalogClient.productExists(productId)).thenReturn(false);
 
 		assertThatThrownBy(()-> userController.addFavoriteProduct(1, productId))
 		.isInstanceOf(ResponseStatusException.class)
@@ -182,6 +277,26 @@ class UserControllerTest {
 
 	}
 
+	@Test
+	void addFavoriteProducts_test() {
+
+		FavoriteChangesDTO changes = new FavoriteChangesDTO(1, List.of(5), List.of(6));
+		when(userService.addFavoriteProducts(1, List.of(5, 6))).thenReturn(changes);
+
+		assertThat(userController.addFavoriteProducts(1, List.of(5, 6))).isEqualTo(changes);
+
+	}
+
+	@Test
+	void deleteFavoriteProducts_test() {
+
+		FavoriteChangesDTO changes = new FavoriteChangesDTO(1, List.of(6), List.of(5));
+		when(userService.deleteFavoriteProducts(1, List.of(5, 6))).thenReturn(changes);
+
+		assertThat(userController.deleteFavoriteProducts(1, List.of(5, 6))).isEqualTo(changes);
+
+	}
+
 	@Test
 	void deleteFavoriteProduct_test() throws Exception {
 
@@ -0,0 +1,84 @@
+package com.gfttraining.it;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+/**
+ * Counts the statements each list endpoint sends to the database, so loading
+ * favorites user by user again shows up as a failure instead of as latency.
+ * The second-level cache is emptied before every request, otherwise a warm
+ * cache would hide the extra queries.
+ */
+// a database of its own, the application's in-memory one may already be created by another context
+@SpringBootTest(properties = {"spring.datasource.url=jdbc:h2:mem:list-endpoints;MODE=PostgreSQL",
+		"spring.jpa.properties.hibernate.generate_statistics=true"})
+@AutoConfigureMockMvc
+class ListEndpointsQueryCountTest {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private SessionFactory sessionFactory;
+
+	@BeforeEach
+	void setUp() {
+		sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+	}
+
+	private long statementsOf(RequestBuilder request, String usersPath, int users) throws Exception {
+
+		sessionFactory.getCache().evictAllRegions();
+		Statistics statistics = sessionFactory.getStatistics();
+		statistics.clear();
+
+		mockMvc.perform(request)
+		.andExpect(status().isOk())
+		.andExpect(jsonPath(usersPath, hasSize(users)))
+		.andExpect(jsonPath(usersPath + "[0].favorites").isArray());
+
+		return statistics.getPrepareStatementCount();
+	}
+
+	@Test
+	void findPage_test() throws Exception {
+
+		assertThat(statementsOf(get("/users").param("limit", "500"), "$.users", 500)).isEqualTo(2);
+	}
+
+	@Test
+	void findUsersByFavoriteProduct_test() throws Exception {
+
+		assertThat(statementsOf(get("/favorite/product/{productId}/users", 92), "$.users", 5)).isEqualTo(2);
+	}
+
+	@Test
+	void findAllByName_test() throws Exception {
+
+		assertThat(statementsOf(get("/users/name/{name}", "Jerry"), "$", 3)).isEqualTo(1);
+	}
+
+	@Test
+	void searchUsers_test() throws Exception {
+
+		assertThat(statementsOf(get("/users/search").param("q", "jerry"), "$.users", 3)).isEqualTo(1);
+	}
+
+}
@@ -0,0 +1,161 @@
+package com.gfttraining.it;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.gfttraining.connection.CartServiceClient;
+import com.gfttraining.connection.ProductCatalogClient;
+import com.gfttraining.entity.UserEntity;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Writes that go through JDBC bypass Hibernate, so every read below is
+ * first served once to put the user in the second-level cache, and the
+ * read after the write has to see the change instead of the cached rows.
+ */
+// a database of its own, the application's in-memory one may already be created by another context
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:second-level-cache;MODE=PostgreSQL")
+@AutoConfigureMockMvc
+class SecondLevelCacheTest {
+
+	private static final String FAVORITES_ROLE = UserEntity.class.getName() + ".favorites";
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@MockBean
+	private CartServiceClient cartServiceClient;
+
+	@MockBean
+	private ProductCatalogClient productCatalogClient;
+
+	private Cache cache;
+
+	@BeforeEach
+	void setUp() {
+		cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+		when(cartServiceClient.getCartsAsync(anyInt())).thenReturn(CompletableFuture.completedFuture(List.of()));
+		when(cartServiceClient.getTimeout()).thenReturn(Duration.ofSeconds(1));
+	}
+
+	@Test
+	void updateUser_test() throws Exception {
+
+		mockMvc.perform(get("/users/{id}", 10)).andExpect(status().isOk());
+		mockMvc.perform(get("/users/email/{email}", "rbradnocke9@chicagotribune.com")).andExpect(status().isOk());
+		assertThat(cache.containsEntity(UserEntity.class, 10)).isTrue();
+
+		mockMvc.perform(patch("/users/{id}", 10).contentType(MediaType.APPLICATION_JSON)
+				.content("{\"name\": \"Ringo Junior\", \"email\": \"ringo@junior.com\"}"))
+		.andExpect(status().isOk());
+
+		mockMvc.perform(get("/users/{id}", 10))
+		.andExpect(status().isOk())
+		.andExpect(jsonPath("$.name", is("Ringo Junior")))
+		.andExpect(jsonPath("$.email", is("ringo@junior.com")));
+		mockMvc.perform(get("/users/email/{email}", "ringo@junior.com"))
+		.andExpect(status().isOk())
+		.andExpect(jsonPath("$.id", is(10)));
+		mockMvc.perform(get("/users/email/{email}", "rbradnocke9@chicagotribune.com")).andExpect(status().isNotFound());
+	}
+
+	@Test
+	void addAndDeleteFavorites_test() throws Exception {
+
+		when(productCatalogClient.missingProducts(anyCollection())).thenReturn(List.of());
+
+		mockMvc.perform(get("/users/{id}", 11))
+		.andExpect(status().isOk())
+		.andExpect(jsonPath("$.favorites", empty()));
+		assertThat(cache.containsCollection(FAVORITES_ROLE, 11)).isTrue();
+
+		mockMvc.perform(post("/favorite/{userId}", 11).contentType(MediaType.APPLICATION_JSON).content("[5, 6]"))
+		.andExpect(status().isOk());
+
+		mockMvc.perform(get("/users/{id}", 11))
+		.andExpect(status().isOk())
+		.andExpect(jsonPath("$.favorites", hasSize(2)));
+
+		mockMvc.perform(delete("/favorite/{userId}", 11).contentType(MediaType.APPLICATION_JSON).content("[5]"))
+		.andExpect(status().isOk());
+
+		mockMvc.perform(get("/users/{id}", 11))
+		.andExpect(status().isOk())
+		.andExpect(jsonPath("$.favorites", hasSize(1)))
+		.andExpect(jsonPath("$.favorites[0].productId", is(6)));
+	}
+
+	@Test
+	void deleteUser_test() throws Exception {
+
+		mockMvc.perform(get("/users/{id}", 12)).andExpect(status().isOk());
+		assertThat(cache.containsEntity(UserEntity.class, 12)).isTrue();
+
+		mockMvc.perform(delete("/users/{id}", 12)).andExpect(status().isNoContent());
+
+		mockMvc.perform(get("/users/{id}", 12)).andExpect(status().isNotFound());
+	}
+
+	@Test
+	void createUsersInBatch_test() throws Exception {
+
+		// an empty result is cached too, the new user has to replace it
+		mockMvc.perform(get("/users/email/{email}", "batch@user.com")).andExpect(status().isNotFound());
+
+		mockMvc.perform(post("/users/batch").contentType(MediaType.APPLICATION_JSON)
+				.content("[{\"email\": \"batch@user.com\", \"name\": \"Batch\", \"lastname\": \"User\", "
+						+ "\"address\": \"calle falsa\", \"country\": \"SPAIN\"}]"))
+		.andExpect(status().isOk());
+
+		mockMvc.perform(get("/users/email/{email}", "batch@user.com"))
+		.andExpect(status().isOk())
+		.andExpect(jsonPath("$.name", is("Batch")));
+	}
+
+	@Test
+	void hitRatioIsPublished_test() throws Exception {
+
+		mockMvc.perform(get("/users/{id}", 13)).andExpect(status().isOk());
+		mockMvc.perform(get("/users/{id}", 13)).andExpect(status().isOk());
+
+		double hitRatio = meterRegistry.get("cache.hit.ratio").tag("cache", "user").gauge().value();
+
+		assertThat(hitRatio).isNotNaN().isBetween(0.0, 1.0);
+	}
+
+}
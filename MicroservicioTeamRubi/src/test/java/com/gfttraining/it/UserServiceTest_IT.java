@@ -150,7 +150,7 @@ class UserServiceTest_IT {
 		mockMvc.perform(patch("/users/1")
 				.contentType(MediaType.APPLICATION_JSON)
 				.content("{ \"name\": \"Pablo\", \"lastname\": \"Garcia\" }"))
-		.andExpect(status().isCreated());
+		.andExpect(status().isOk());
 
 	}
 
@@ -283,7 +283,7 @@ class UserServiceTest_IT {
 	 @Test
 	 public void getUserPointsAndAvg () throws IOException, InterruptedException {
 			
-			stubFor(get(urlPathEqualTo("/carts/user/" + 12))
+			stubFor(WireMock.get(urlPathEqualTo("/carts/user/" + 12))
 	                .willReturn(aResponse()
 	                    .withStatus(200)
 	                    .withHeader("Content-Type", "application/json")
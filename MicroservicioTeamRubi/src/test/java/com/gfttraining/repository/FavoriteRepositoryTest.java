@@ -0,0 +1,56 @@
+package com.gfttraining.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.context.annotation.Import;
+
+import com.gfttraining.config.SecondLevelCacheConfig;
+import com.gfttraining.config.SecondLevelCacheProperties;
+import com.gfttraining.entity.FavoriteProduct;
+
+// a database of its own, the application's in-memory one may already be created by another context
+@DataJpaTest(properties = "spring.datasource.url=jdbc:h2:mem:user-repository;MODE=PostgreSQL")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({SecondLevelCacheConfig.class, SecondLevelCacheProperties.class, SecondLevelCacheEvictor.class})
+class FavoriteRepositoryTest {
+
+	@Autowired
+	private FavoriteRepository favoriteRepository;
+
+	@Test
+	void insertSkipsExistingPairs_test() {
+
+		int[] counts = favoriteRepository.insertAllIfAbsent(List.of(new FavoriteProduct(244, 21), new FavoriteProduct(244, 99),
+				new FavoriteProduct(244, 99), new FavoriteProduct(244, 98)));
+
+		assertThat(counts).containsExactly(0, 1, 0, 1);
+		assertThat(favoriteRepository.findByUserId(244)).extracting(FavoriteProduct::getProductId).containsExactlyInAnyOrder(21, 42, 99, 98);
+	}
+
+	@Test
+	void deleteSkipsMissingPairs_test() {
+
+		int[] counts = favoriteRepository.deleteAllByUserAndProduct(List.of(new FavoriteProduct(244, 21), new FavoriteProduct(244, 99)));
+
+		assertThat(counts).containsExactly(1, 0);
+		assertThat(favoriteRepository.findByUserId(244)).extracting(FavoriteProduct::getProductId).containsExactly(42);
+	}
+
+	@Test
+	void findUserIdsByProductIdAfter_test() {
+
+		List<Integer> all = favoriteRepository.findUserIdsByProductIdAfter(92, 0, PageRequest.of(0, 10));
+		List<Integer> page = favoriteRepository.findUserIdsByProductIdAfter(92, all.get(1), PageRequest.of(0, 2));
+
+		assertThat(all).hasSize(5).isSorted();
+		assertThat(page).containsExactly(all.get(2), all.get(3));
+	}
+
+}
@@ -0,0 +1,228 @@
+package com.gfttraining.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.gfttraining.config.SecondLevelCacheConfig;
+import com.gfttraining.config.SecondLevelCacheProperties;
+import com.gfttraining.entity.FavoriteProduct;
+import com.gfttraining.entity.UserEntity;
+
+/**
+ * Runs the hand-written SQL against H2 in PostgreSQL mode, the database the
+ * application uses, on top of the seeded users. Every test is rolled back.
+ */
+// a database of its own, the application's in-memory one may already be created by another context
+@DataJpaTest(properties = "spring.datasource.url=jdbc:h2:mem:user-repository;MODE=PostgreSQL")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({SecondLevelCacheConfig.class, SecondLevelCacheProperties.class, SecondLevelCacheEvictor.class})
+class UserRepositoryTest {
+
+	private static final String STORED_EMAIL = "hmurphey0@smugmug.com";
+
+	private static final String OTHER_STORED_EMAIL = "gstilldale1@artisteer.com";
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private static UserEntity user(String email, String name) {
+		return new UserEntity(email, name, "Perez", "calle falsa", "SPAIN");
+	}
+
+	private static UserEntity user(String email, String name, String lastname, String address, String country, String paymentMethod,
+			Integer... productIds) {
+		UserEntity user = new UserEntity(email, name, lastname, address, country);
+		user.setPaymentmethod(paymentMethod);
+		// imported favorites carry only the product, the user is matched on email
+		for (Integer productId : productIds) {
+			FavoriteProduct favorite = new FavoriteProduct();
+			favorite.setProductId(productId);
+			user.addFavorite(favorite);
+		}
+		return user;
+	}
+
+	private List<Integer> favoritesOf(int userId, String column) {
+		return jdbcTemplate.queryForList("select " + column + " from favoriteproduct where user_id = ? order by " + column, Integer.class, userId);
+	}
+
+	private void assertIdsMatchStoredRows(List<UserEntity> inserted) {
+		Map<String, Integer> stored = userRepository.findIdsByEmails(inserted.stream().map(UserEntity::getEmail).collect(Collectors.toList()));
+		for (UserEntity user : inserted) {
+			assertThat(user.getId()).as(user.getEmail()).isNotNull().isEqualTo(stored.get(user.getEmail()));
+		}
+	}
+
+	@Test
+	void insertSkipsStoredEmails_test() {
+
+		long before = userRepository.count();
+		List<UserEntity> users = List.of(user("new1@pepe.com", "Uno"), user(STORED_EMAIL, "Pepito"), user("new2@pepe.com", "Dos"));
+
+		assertThat(userRepository.insertAllSkippingDuplicates(users)).isEqualTo(2);
+
+		assertThat(userRepository.count()).isEqualTo(before + 2);
+		assertThat(users.get(1).getId()).isNull();
+		assertIdsMatchStoredRows(List.of(users.get(0), users.get(2)));
+		assertThat(userRepository.findByEmail(STORED_EMAIL).getName()).isEqualTo("Hamish");
+	}
+
+	@Test
+	void insertSkipsDuplicatesWithinBatch_test() {
+
+		long before = userRepository.count();
+		List<UserEntity> users = List.of(user("twice@pepe.com", "Primero"), user("twice@pepe.com", "Segundo"));
+
+		assertThat(userRepository.insertAllSkippingDuplicates(users)).isEqualTo(1);
+
+		assertThat(userRepository.count()).isEqualTo(before + 1);
+		assertThat(users.get(1).getId()).isNull();
+		assertIdsMatchStoredRows(List.of(users.get(0)));
+		assertThat(userRepository.findByEmail("twice@pepe.com").getName()).isEqualTo("Primero");
+	}
+
+	@Test
+	void insertMapsIdsPastSkippedRows_test() {
+
+		List<UserEntity> users = List.of(user(STORED_EMAIL, "Skipped"), user("a@pepe.com", "A"), user(OTHER_STORED_EMAIL, "Skipped"),
+				user("b@pepe.com", "B"), user("a@pepe.com", "Skipped"), user("c@pepe.com", "C"));
+
+		assertThat(userRepository.insertAllSkippingDuplicates(users)).isEqualTo(3);
+
+		assertIdsMatchStoredRows(List.of(users.get(1), users.get(3), users.get(5)));
+		assertThat(users.get(0).getId()).isNull();
+		assertThat(users.get(2).getId()).isNull();
+		assertThat(users.get(4).getId()).isNull();
+	}
+
+	@Test
+	void applyStagedUsers_test() {
+
+		List<Integer> keptFavoriteIds = favoritesOf(244, "id");
+		List<UserEntity> staged = List.of(
+				user("thaughin6r@wikispaces.com", "Tana", "Haughin", "PO Box 10064", "SPAIN", "PAYPAL", 21, 42),
+				user("mferrettino3y@hao123.com", "Mendie", "Ferrettino", "Room 882", "FINLAND", null, 57),
+				user("nuevo@pepe.com", "Nuevo", "Perez", "calle falsa", "SPAIN", "VISA", 7, 8),
+				user("nuevo@pepe.com", "Repetido", "Perez", "calle falsa", "SPAIN", "VISA", 9));
+
+		assertThat(userRepository.stageAll(staged)).containsExactly(1, 1, 1, 0);
+
+		assertThat(userRepository.updateChangedFromStaging()).isEqualTo(1);
+		assertThat(userRepository.insertNewFromStaging()).isEqualTo(1);
+		assertThat(userRepository.deleteMissingFromStaging()).isEqualTo(998);
+		assertThat(userRepository.insertNewFavoritesFromStaging()).isEqualTo(3);
+		userRepository.clearStaging();
+
+		List<Map<String, Object>> rows = jdbcTemplate.queryForList("select * from user order by id");
+		assertThat(rows).extracting(row -> row.get("EMAIL"))
+		.containsExactly("mferrettino3y@hao123.com", "thaughin6r@wikispaces.com", "nuevo@pepe.com");
+		assertThat(rows.get(0)).containsEntry("ID", 143).containsEntry("ADDRESS", "Room 882").containsEntry("PAYMENTMETHOD", null);
+		assertThat(rows.get(1)).containsEntry("ID", 244).containsEntry("ADDRESS", "PO Box 10064").containsEntry("PAYMENTMETHOD", "PAYPAL");
+		assertThat(rows.get(2)).containsEntry("NAME", "Nuevo");
+
+		// unchanged favorites are left in place, not deleted and inserted again
+		assertThat(favoritesOf(244, "id")).isEqualTo(keptFavoriteIds);
+		assertThat(favoritesOf(244, "product_id")).containsExactly(21, 42);
+		assertThat(favoritesOf(143, "product_id")).containsExactly(57);
+		assertThat(favoritesOf((Integer) rows.get(2).get("ID"), "product_id")).containsExactly(7, 8);
+		assertThat(jdbcTemplate.queryForObject("select count(*) from favoriteproduct", Integer.class)).isEqualTo(5);
+		assertThat(jdbcTemplate.queryForObject("select count(*) from user_staging", Integer.class)).isZero();
+		assertThat(jdbcTemplate.queryForObject("select count(*) from favoriteproduct_staging", Integer.class)).isZero();
+	}
+
+	@Test
+	void updateOnlySuppliedColumns_test() {
+
+		UserEntity changes = new UserEntity();
+		changes.setAddress("Room 192");
+
+		UserEntity updated = userRepository.updateSuppliedColumns(1, changes).get();
+
+		assertThat(updated).extracting(UserEntity::getId, UserEntity::getEmail, UserEntity::getName, UserEntity::getAddress, UserEntity::getPaymentmethod)
+		.containsExactly(1, STORED_EMAIL, "Hamish", "Room 192", "TRANSFER");
+		assertThat(jdbcTemplate.queryForMap("select name, address from user where id = 1"))
+		.containsEntry("NAME", "Hamish").containsEntry("ADDRESS", "Room 192");
+	}
+
+	@Test
+	void updateWithOwnEmail_test() {
+
+		UserEntity changes = new UserEntity();
+		changes.setEmail(STORED_EMAIL);
+		changes.setName("Hamlet");
+
+		UserEntity updated = userRepository.updateSuppliedColumns(1, changes).get();
+
+		assertThat(updated.getEmail()).isEqualTo(STORED_EMAIL);
+		assertThat(updated.getName()).isEqualTo("Hamlet");
+	}
+
+	@Test
+	void updateWithEmailOfAnotherUser_test() {
+
+		UserEntity changes = new UserEntity();
+		changes.setEmail(OTHER_STORED_EMAIL);
+
+		// the exception UserService turns into a DuplicateEmailException
+		assertThatThrownBy(() -> userRepository.updateSuppliedColumns(1, changes)).isInstanceOf(DuplicateKeyException.class);
+		assertThat(jdbcTemplate.queryForObject("select email from user where id = 1", String.class)).isEqualTo(STORED_EMAIL);
+	}
+
+	@Test
+	void updateMissingUser_test() {
+
+		UserEntity changes = new UserEntity();
+		changes.setName("Nadie");
+
+		assertThat(userRepository.updateSuppliedColumns(5000, changes)).isEmpty();
+	}
+
+	@Test
+	void deleteByIdWithFavorites_test() {
+
+		UserEntity deleted = userRepository.deleteByIdWithFavorites(244).get();
+
+		assertThat(deleted.getEmail()).isEqualTo("thaughin6r@wikispaces.com");
+		assertThat(deleted.getFavorites()).extracting(FavoriteProduct::getProductId).containsExactlyInAnyOrder(21, 42);
+
+		assertThat(jdbcTemplate.queryForObject("select count(*) from user where id = 244", Integer.class)).isZero();
+		assertThat(favoritesOf(244, "product_id")).isEmpty();
+	}
+
+	@Test
+	void deleteUserWithoutFavorites_test() {
+
+		assertThat(favoritesOf(1, "product_id")).isEmpty();
+
+		UserEntity deleted = userRepository.deleteByIdWithFavorites(1).get();
+
+		assertThat(deleted.getEmail()).isEqualTo(STORED_EMAIL);
+		assertThat(deleted.getFavorites()).isEmpty();
+	}
+
+	@Test
+	void deleteMissingUser_test() {
+
+		long before = userRepository.count();
+
+		assertThat(userRepository.deleteByIdWithFavorites(5000)).isEmpty();
+
+		assertThat(userRepository.count()).isEqualTo(before);
+	}
+
+}
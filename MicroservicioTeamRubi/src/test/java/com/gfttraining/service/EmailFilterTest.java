@@ -0,0 +1,86 @@
+package com.gfttraining.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.gfttraining.repository.UserRepository;
+
+@ExtendWith(MockitoExtension.class)
+class EmailFilterTest {
+
+	@Mock
+	private UserRepository userRepository;
+
+	private EmailFilter emailFilter;
+
+	@BeforeEach
+	void setUp() {
+		doAnswer(invocation -> {
+			Consumer<String> action = invocation.getArgument(0);
+			List.of("pepe@pepe.com", "ana@pepe.com").forEach(action);
+			return null;
+		}).when(userRepository).forEachEmail(any());
+
+		emailFilter = new EmailFilter(userRepository, 1000, 0.01);
+		emailFilter.afterSingletonsInstantiated();
+	}
+
+	@Test
+	void registeredEmailsAreSeededFromTable_test() {
+
+		assertThat(emailFilter.mightContain("pepe@pepe.com")).isTrue();
+		assertThat(emailFilter.mightContain("ana@pepe.com")).isTrue();
+		assertThat(emailFilter.mightContain("luis@pepe.com")).isFalse();
+	}
+
+	@Test
+	void absentEmailSkipsDatabase_test() {
+
+		Predicate<String> database = email -> {
+			throw new AssertionError("database asked for " + email);
+		};
+
+		assertThat(emailFilter.exists("luis@pepe.com", database)).isFalse();
+	}
+
+	@Test
+	void removedEmailIsAbsent_test() {
+
+		emailFilter.added("luis@pepe.com");
+		emailFilter.removed("luis@pepe.com");
+		emailFilter.removed("ana@pepe.com");
+
+		assertThat(emailFilter.mightContain("luis@pepe.com")).isFalse();
+		assertThat(emailFilter.mightContain("ana@pepe.com")).isFalse();
+		assertThat(emailFilter.mightContain("pepe@pepe.com")).isTrue();
+	}
+
+	@Test
+	void falsePositiveRateStaysNearConfiguredRate_test() {
+
+		emailFilter.addedAll(IntStream.range(0, 998).mapToObj(i -> "user" + i + "@pepe.com").collect(Collectors.toList()));
+
+		long falsePositives = IntStream.range(0, 10000)
+				.filter(i -> emailFilter.mightContain("other" + i + "@pepe.com"))
+				.count();
+
+		assertThat(falsePositives / 10000.0).isLessThan(0.03);
+		assertThat(emailFilter.expectedFalsePositiveRate()).isBetween(0.005, 0.015);
+		// about 9.6 counters of 4 bits per email at 1%
+		assertThat(emailFilter.memoryBytes()).isLessThan(1000 * 5);
+	}
+
+}
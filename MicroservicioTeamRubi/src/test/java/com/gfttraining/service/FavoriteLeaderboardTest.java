@@ -0,0 +1,88 @@
+package com.gfttraining.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.gfttraining.DTO.ProductFavoritesDTO;
+import com.gfttraining.repository.FavoriteRepository;
+
+@ExtendWith(MockitoExtension.class)
+class FavoriteLeaderboardTest {
+
+	@Mock
+	private FavoriteRepository favoriteRepository;
+
+	private FavoriteLeaderboard leaderboard;
+
+	@BeforeEach
+	void setUp() {
+		when(favoriteRepository.countAllByProduct()).thenReturn(Map.of(1, 2L, 2, 5L, 3, 2L));
+		leaderboard = new FavoriteLeaderboard(favoriteRepository);
+		leaderboard.afterSingletonsInstantiated();
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	@Test
+	void topIsSeededFromTable_test() {
+
+		assertThat(leaderboard.top(2)).containsExactly(new ProductFavoritesDTO(2, 5), new ProductFavoritesDTO(1, 2));
+	}
+
+	@Test
+	void topFollowsChanges_test() {
+
+		leaderboard.added(List.of(3, 3, 3, 4));
+		leaderboard.removed(List.of(2, 2));
+		leaderboard.productRemoved(1);
+
+		assertThat(leaderboard.top(10)).containsExactly(
+				new ProductFavoritesDTO(3, 5),
+				new ProductFavoritesDTO(2, 3),
+				new ProductFavoritesDTO(4, 1));
+	}
+
+	@Test
+	void changesWaitForCommit_test() {
+
+		TransactionSynchronizationManager.initSynchronization();
+		leaderboard.added(List.of(1, 1, 1, 1));
+
+		assertThat(leaderboard.top(1)).containsExactly(new ProductFavoritesDTO(2, 5));
+
+		for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+			synchronization.afterCommit();
+		}
+
+		assertThat(leaderboard.top(1)).containsExactly(new ProductFavoritesDTO(1, 6));
+	}
+
+	@Test
+	void reloadReplacesCounts_test() {
+
+		leaderboard.added(List.of(7));
+		when(favoriteRepository.countAllByProduct()).thenReturn(Map.of(3, 1L));
+
+		leaderboard.reload();
+
+		assertThat(leaderboard.top(10)).containsExactly(new ProductFavoritesDTO(3, 1));
+	}
+
+}
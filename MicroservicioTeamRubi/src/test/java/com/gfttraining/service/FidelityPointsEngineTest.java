@@ -0,0 +1,103 @@
+package com.gfttraining.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.gfttraining.DTO.LoyaltySummaryDTO;
+import com.gfttraining.entity.CartEntity;
+import com.gfttraining.entity.ProductEntity;
+
+class FidelityPointsEngineTest {
+
+	private FidelityPointsEngine fidelityPointsEngine = new FidelityPointsEngine(new FidelityProperties());
+
+	private static CartEntity cart(String... totals) {
+		List<ProductEntity> products = new ArrayList<>();
+		for (String total : totals) {
+			ProductEntity product = new ProductEntity();
+			product.setTotalPrize(new BigDecimal(total));
+			products.add(product);
+		}
+		CartEntity cart = new CartEntity();
+		cart.setProducts(products);
+		return cart;
+	}
+
+	@Test
+	void pointsPerTier_test() {
+
+		assertThat(fidelityPointsEngine.pointsFor(1999)).isZero();
+		assertThat(fidelityPointsEngine.pointsFor(2000)).isEqualTo(1);
+		assertThat(fidelityPointsEngine.pointsFor(2999)).isEqualTo(1);
+		assertThat(fidelityPointsEngine.pointsFor(3000)).isEqualTo(3);
+		assertThat(fidelityPointsEngine.pointsFor(4999)).isEqualTo(3);
+		assertThat(fidelityPointsEngine.pointsFor(5000)).isEqualTo(5);
+		assertThat(fidelityPointsEngine.pointsFor(9999)).isEqualTo(5);
+		assertThat(fidelityPointsEngine.pointsFor(10000)).isEqualTo(10);
+	}
+
+	@Test
+	void score_test() {
+
+		LoyaltySummaryDTO summary = fidelityPointsEngine.score(Arrays.asList(cart("20", "35.50"), cart("10", "150.00")));
+
+		assertThat(summary.getAverageSpent()).isEqualTo(new BigDecimal("53.88"));
+		assertThat(summary.getPoints()).isEqualTo(14);
+	}
+
+	@Test
+	void scoreWithNonTerminatingAverage_test() {
+
+		LoyaltySummaryDTO summary = fidelityPointsEngine.score(Arrays.asList(cart("10", "10", "20")));
+
+		assertThat(summary.getAverageSpent()).isEqualTo(new BigDecimal("13.33"));
+		assertThat(summary.getPoints()).isEqualTo(1);
+	}
+
+	@Test
+	void scoreRoundsPricesToCentsBeforeTiering_test() {
+
+		LoyaltySummaryDTO summary = fidelityPointsEngine.score(Arrays.asList(cart("19.995")));
+
+		assertThat(summary.getPoints()).isEqualTo(1);
+	}
+
+	@Test
+	void scoreWithoutProducts_test() {
+
+		LoyaltySummaryDTO summary = fidelityPointsEngine.score(Arrays.asList(new CartEntity()));
+
+		assertThat(summary.getAverageSpent()).isEqualTo(new BigDecimal("0.00"));
+		assertThat(summary.getPoints()).isZero();
+	}
+
+	@Test
+	void configuredTiers_test() {
+
+		FidelityProperties properties = new FidelityProperties();
+		properties.setTiers(Arrays.asList(new FidelityProperties.Tier(new BigDecimal("15.5"), 2), new FidelityProperties.Tier(new BigDecimal("5"), 1)));
+		FidelityPointsEngine engine = new FidelityPointsEngine(properties);
+
+		assertThat(engine.pointsFor(499)).isZero();
+		assertThat(engine.pointsFor(1549)).isEqualTo(1);
+		assertThat(engine.pointsFor(1550)).isEqualTo(2);
+	}
+
+	@Test
+	void duplicatedTiers_test() {
+
+		FidelityProperties properties = new FidelityProperties();
+		properties.setTiers(Arrays.asList(new FidelityProperties.Tier(new BigDecimal("20"), 1), new FidelityProperties.Tier(new BigDecimal("20.00"), 2)));
+
+		assertThatThrownBy(() -> new FidelityPointsEngine(properties))
+		.isInstanceOf(IllegalStateException.class);
+	}
+
+}
@@ -0,0 +1,133 @@
+package com.gfttraining.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+@ExtendWith(MockitoExtension.class)
+class ImportJobServiceTest {
+
+	@Mock
+	private UserImportService userImportService;
+
+	private ImportJobService importJobService;
+
+	@BeforeEach
+	void setUp() {
+		importJobService = new ImportJobService(userImportService, 1, 1, Duration.ofHours(1));
+	}
+
+	@AfterEach
+	void tearDown() {
+		importJobService.shutdown();
+	}
+
+	private static MockMultipartFile file() {
+		return new MockMultipartFile("file", "users.json", "application/json", "[]".getBytes());
+	}
+
+	private static void awaitFinished(ImportJob job) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!job.isFinished() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	void submitImport_test() throws Exception {
+
+		ImportJob job = importJobService.submit(file(), ImportMode.MERGE);
+		awaitFinished(job);
+
+		assertThat(job.getState()).isEqualTo(ImportJobState.COMPLETED);
+		assertThat(importJobService.findJob(job.getId())).isSameAs(job);
+		verify(userImportService).importUsers(any(InputStream.class), eq(job));
+	}
+
+	@Test
+	void failedImport_test() throws Exception {
+
+		when(userImportService.importUsers(any(InputStream.class), any(ImportJob.class)))
+		.thenThrow(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Import file must contain a JSON array of users"));
+
+		ImportJob job = importJobService.submit(file(), ImportMode.REPLACE);
+		awaitFinished(job);
+
+		assertThat(job.getState()).isEqualTo(ImportJobState.FAILED);
+		assertThat(job.toDTO().getFailure()).contains("JSON array");
+	}
+
+	@Test
+	void cancelQueuedImport_test() throws Exception {
+
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(userImportService.importUsers(any(InputStream.class), any(ImportJob.class))).thenAnswer(invocation -> {
+			running.countDown();
+			release.await(5, TimeUnit.SECONDS);
+			return null;
+		});
+
+		ImportJob first = importJobService.submit(file(), ImportMode.REPLACE);
+		running.await(5, TimeUnit.SECONDS);
+		ImportJob queued = importJobService.submit(file(), ImportMode.REPLACE);
+
+		importJobService.cancel(queued.getId());
+		release.countDown();
+		awaitFinished(first);
+		awaitFinished(queued);
+
+		assertThat(first.getState()).isEqualTo(ImportJobState.COMPLETED);
+		assertThat(queued.getState()).isEqualTo(ImportJobState.CANCELLED);
+		verify(userImportService, never()).importUsers(any(InputStream.class), eq(queued));
+	}
+
+	@Test
+	void submitWithFullQueue_test() throws Exception {
+
+		CountDownLatch release = new CountDownLatch(1);
+		when(userImportService.importUsers(any(InputStream.class), any(ImportJob.class))).thenAnswer(invocation -> {
+			release.await(5, TimeUnit.SECONDS);
+			return null;
+		});
+
+		try {
+			importJobService.submit(file(), ImportMode.REPLACE);
+			importJobService.submit(file(), ImportMode.REPLACE);
+
+			assertThatThrownBy(() -> importJobService.submit(file(), ImportMode.REPLACE))
+			.isInstanceOf(ResponseStatusException.class)
+			.hasMessageContaining("Too many imports");
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	void findUnknownJob_test() {
+
+		assertThatThrownBy(() -> importJobService.findJob("missing"))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("not found");
+	}
+
+}
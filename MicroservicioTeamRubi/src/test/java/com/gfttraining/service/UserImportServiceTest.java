@@ -0,0 +1,267 @@
+package com.gfttraining.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Collectors;
+
+import javax.validation.Validation;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gfttraining.DTO.ImportReportDTO;
+import com.gfttraining.DTO.UserBatchResultDTO;
+import com.gfttraining.entity.FavoriteProduct;
+import com.gfttraining.entity.UserEntity;
+import com.gfttraining.repository.FavoriteRepository;
+import com.gfttraining.repository.UserRepository;
+
+@ExtendWith(MockitoExtension.class)
+class UserImportServiceTest {
+
+	@Mock
+	private UserRepository userRepository;
+
+	@Mock
+	private FavoriteRepository favoriteRepository;
+
+	@Mock
+	private TransactionTemplate transactionTemplate;
+
+	@Mock
+	private FavoriteLeaderboard favoriteLeaderboard;
+
+	@Mock
+	private EmailFilter emailFilter;
+
+	@Mock
+	private UserSearchIndex userSearchIndex;
+
+	private UserImportService userImportService;
+
+	@BeforeEach
+	void setUp() {
+		lenient().when(favoriteRepository.insertAllIfAbsent(anyList())).thenAnswer(invocation -> {
+			int[] counts = new int[invocation.<List<?>>getArgument(0).size()];
+			Arrays.fill(counts, 1);
+			return counts;
+		});
+		userImportService = new UserImportService(userRepository, favoriteRepository, new ObjectMapper(),
+				Validation.buildDefaultValidatorFactory().getValidator(), transactionTemplate, favoriteLeaderboard, emailFilter, userSearchIndex, 2);
+	}
+
+	private void runTransactionsInline() {
+		when(transactionTemplate.execute(any())).thenAnswer(invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+	}
+
+	private static ByteArrayInputStream json(String content) {
+		return new ByteArrayInputStream(content.getBytes());
+	}
+
+	@Test
+	void importUsersInChunks_test() throws Exception {
+
+		runTransactionsInline();
+		when(userRepository.insertAllSkippingDuplicates(anyList())).thenAnswer(invocation -> {
+			List<UserEntity> users = invocation.getArgument(0);
+			users.forEach(user -> user.setId(user.getEmail().length()));
+			return users.size();
+		});
+
+		ImportReportDTO report = userImportService.importUsers(json("["
+				+ "{\"email\": \"a@gmail.com\", \"name\": \"pedro\", \"lastname\": \"soler\", \"address\": \"monzon\", \"country\": \"SPAIN\"},"
+				+ "{\"email\": \"bb@gmail.com\", \"name\": \"ana\", \"lastname\": \"soler\", \"address\": \"monzon\", \"country\": \"SPAIN\", \"favorites\": [{\"productId\": 7}]},"
+				+ "{\"email\": \"ccc@gmail.com\", \"name\": \"luis\", \"lastname\": \"soler\", \"address\": \"monzon\", \"country\": \"SPAIN\"}"
+				+ "]"), new ImportJob("job", ImportMode.REPLACE));
+
+		assertThat(report.getImported()).isEqualTo(3);
+		assertThat(report.getInserted()).isEqualTo(3);
+		assertThat(report.getRejected()).isZero();
+
+		verify(userRepository, times(1)).deleteAllWithFavorites();
+		verify(userRepository, times(2)).insertAllSkippingDuplicates(anyList());
+
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<List<FavoriteProduct>> favorites = ArgumentCaptor.forClass(List.class);
+		verify(favoriteRepository, times(2)).insertAllIfAbsent(favorites.capture());
+		assertThat(favorites.getAllValues().get(0)).containsExactly(new FavoriteProduct(12, 7));
+	}
+
+	@Test
+	void importUsersRejectsInvalidAndDuplicatedRows_test() throws Exception {
+
+		runTransactionsInline();
+		when(userRepository.insertAllSkippingDuplicates(anyList())).thenAnswer(invocation -> {
+			List<UserEntity> users = invocation.getArgument(0);
+			users.get(0).setId(1);
+			return 1;
+		});
+
+		ImportReportDTO report = userImportService.importUsers(json("["
+				+ "{\"email\": \"a@gmail.com\", \"name\": \"pedro\", \"lastname\": \"soler\", \"address\": \"monzon\", \"country\": \"SPAIN\"},"
+				+ "{\"email\": \"a@gmail.com\", \"name\": \"pedro\", \"lastname\": \"soler\", \"address\": \"monzon\", \"country\": \"SPAIN\"},"
+				+ "{\"email\": \"not an email\", \"name\": \"pedro\", \"lastname\": \"soler\", \"address\": \"monzon\", \"country\": \"SPAIN\"},"
+				+ "{\"id\": \"abc\"},"
+				+ "42"
+				+ "]"), new ImportJob("job", ImportMode.REPLACE));
+
+		assertThat(report.getImported()).isEqualTo(1);
+		assertThat(report.getRejected()).isEqualTo(4);
+		assertThat(report.getErrors()).anyMatch(error -> error.contains("email a@gmail.com is duplicated"));
+		assertThat(report.getErrors()).anyMatch(error -> error.startsWith("row 3: email"));
+	}
+
+	@Test
+	void mergeUsers_test() throws Exception {
+
+		runTransactionsInline();
+		when(userRepository.updateChangedByEmail(anyList())).thenReturn(1);
+		when(userRepository.insertAllSkippingDuplicates(anyList())).thenAnswer(invocation -> {
+			List<UserEntity> users = invocation.getArgument(0);
+			users.get(1).setId(20);
+			return 1;
+		});
+		when(userRepository.findIdsByEmails(List.of("a@gmail.com"))).thenReturn(Map.of("a@gmail.com", 10));
+
+		ImportReportDTO report = userImportService.importUsers(json("["
+				+ "{\"email\": \"a@gmail.com\", \"name\": \"pedro\", \"lastname\": \"soler\", \"address\": \"monzon\", \"country\": \"SPAIN\", \"favorites\": [{\"productId\": 7}]},"
+				+ "{\"email\": \"b@gmail.com\", \"name\": \"ana\", \"lastname\": \"soler\", \"address\": \"monzon\", \"country\": \"SPAIN\"}"
+				+ "]"), new ImportJob("job", ImportMode.MERGE));
+
+		assertThat(report.getImported()).isEqualTo(2);
+		assertThat(report.getInserted()).isEqualTo(1);
+		assertThat(report.getUpdated()).isEqualTo(1);
+		assertThat(report.getRejected()).isZero();
+
+		verify(userRepository, never()).deleteAllWithFavorites();
+		verify(favoriteRepository, times(1)).insertAllIfAbsent(List.of(new FavoriteProduct(10, 7)));
+		verify(favoriteLeaderboard, times(1)).added(List.of(7));
+		verify(emailFilter, times(1)).added("b@gmail.com");
+		verify(emailFilter, never()).added("a@gmail.com");
+		verify(userSearchIndex, times(1)).indexedAll(argThat(users -> emails(users).equals(List.of("b@gmail.com"))));
+		verify(userSearchIndex, times(1)).indexedByEmail(argThat(users -> emails(users).equals(List.of("a@gmail.com"))));
+	}
+
+	private static List<String> emails(Collection<UserEntity> users) {
+		return users.stream().map(UserEntity::getEmail).collect(Collectors.toList());
+	}
+
+	@Test
+	void stagedImport_test() throws Exception {
+
+		runTransactionsInline();
+		when(userRepository.stageAll(anyList())).thenReturn(new int[] {1, 0});
+		when(userRepository.updateChangedFromStaging()).thenReturn(1);
+		when(userRepository.insertNewFromStaging()).thenReturn(0);
+		when(userRepository.deleteMissingFromStaging()).thenReturn(998);
+
+		ImportReportDTO report = userImportService.importUsers(json("["
+				+ "{\"email\": \"a@gmail.com\", \"name\": \"pedro\", \"lastname\": \"soler\", \"address\": \"monzon\", \"country\": \"SPAIN\"},"
+				+ "{\"email\": \"a@gmail.com\", \"name\": \"pedro\", \"lastname\": \"soler\", \"address\": \"monzon\", \"country\": \"SPAIN\"}"
+				+ "]"), new ImportJob("job", ImportMode.STAGED));
+
+		assertThat(report.getImported()).isEqualTo(1);
+		assertThat(report.getRejected()).isEqualTo(1);
+		assertThat(report.getUpdated()).isEqualTo(1);
+		assertThat(report.getDeleted()).isEqualTo(998);
+
+		InOrder inOrder = inOrder(userRepository);
+		inOrder.verify(userRepository).clearStaging();
+		inOrder.verify(userRepository).stageAll(anyList());
+		inOrder.verify(userRepository).updateChangedFromStaging();
+		inOrder.verify(userRepository).insertNewFromStaging();
+		inOrder.verify(userRepository).deleteMissingFromStaging();
+		inOrder.verify(userRepository).insertNewFavoritesFromStaging();
+		inOrder.verify(userRepository).clearStaging();
+		verify(userRepository, never()).insertAllSkippingDuplicates(anyList());
+	}
+
+	@Test
+	void cancelledImport_test() throws Exception {
+
+		runTransactionsInline();
+		ImportJob job = new ImportJob("job", ImportMode.REPLACE);
+		job.requestCancel();
+
+		assertThatThrownBy(() -> userImportService.importUsers(json("[{\"email\": \"a@gmail.com\", \"name\": \"Ana\"}]"), job))
+		.isInstanceOf(CancellationException.class);
+		verify(userRepository, never()).insertAllSkippingDuplicates(anyList());
+	}
+
+	@Test
+	void createUsers_test() throws Exception {
+
+		runTransactionsInline();
+		when(userRepository.insertAllSkippingDuplicates(anyList())).thenAnswer(invocation -> {
+			List<UserEntity> users = invocation.getArgument(0);
+			users.forEach(user -> user.setId(user.getEmail().startsWith("taken") ? null : user.getEmail().length()));
+			return (int) users.stream().filter(user -> user.getId() != null).count();
+		});
+
+		ObjectMapper objectMapper = new ObjectMapper();
+		List<JsonNode> entries = List.of(
+				objectMapper.readTree("{\"email\": \"a@gmail.com\", \"name\": \"pedro\", \"lastname\": \"soler\", \"address\": \"monzon\", \"country\": \"SPAIN\", \"favorites\": [{\"productId\": 7}]}"),
+				objectMapper.readTree("{\"email\": \"not-an-email\", \"name\": \"ana\", \"lastname\": \"soler\", \"address\": \"monzon\", \"country\": \"SPAIN\"}"),
+				objectMapper.readTree("{\"email\": \"taken@gmail.com\", \"name\": \"luis\", \"lastname\": \"soler\", \"address\": \"monzon\", \"country\": \"SPAIN\"}"),
+				objectMapper.readTree("[]"),
+				objectMapper.readTree("{\"email\": \"dddd@gmail.com\", \"name\": \"eva\", \"lastname\": \"soler\", \"address\": \"monzon\", \"country\": \"SPAIN\"}"));
+
+		List<UserBatchResultDTO> results = userImportService.createUsers(entries);
+
+		assertThat(results).extracting(UserBatchResultDTO::getStatus).containsExactly(UserBatchStatus.CREATED, UserBatchStatus.INVALID,
+				UserBatchStatus.DUPLICATE, UserBatchStatus.INVALID, UserBatchStatus.CREATED);
+		assertThat(results).extracting(UserBatchResultDTO::getId).containsExactly(11, null, null, null, 14);
+		assertThat(results.get(1).getError()).contains("email");
+		assertThat(results.get(2).getError()).isEqualTo("The email taken@gmail.com is already in use");
+		assertThat(results.get(3).getError()).isEqualTo("expected a user object");
+		// chunk size 2, so the three valid users take two batches in the one transaction
+		verify(userRepository, times(2)).insertAllSkippingDuplicates(anyList());
+		verify(transactionTemplate, times(1)).execute(any());
+		verify(favoriteRepository, times(1)).insertAllIfAbsent(List.of(new FavoriteProduct(11, 7)));
+
+	}
+
+	@Test
+	void createUsersWithEmptyBatch_test() {
+
+		assertThatThrownBy(() -> userImportService.createUsers(List.of()))
+		.isInstanceOf(ResponseStatusException.class).hasMessageContaining("between 1 and " + UserImportService.MAX_BATCH_SIZE);
+
+	}
+
+	@Test
+	void importUsersWithoutArray_test() {
+
+		runTransactionsInline();
+		assertThatThrownBy(() -> userImportService.importUsers(json("{\"email\": \"a@gmail.com\"}"), new ImportJob("job", ImportMode.REPLACE)))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("JSON array");
+	}
+
+}
@@ -0,0 +1,149 @@
+package com.gfttraining.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.gfttraining.entity.UserEntity;
+import com.gfttraining.repository.UserRepository;
+
+@ExtendWith(MockitoExtension.class)
+class UserSearchIndexTest {
+
+	@Mock
+	private UserRepository userRepository;
+
+	private UserSearchIndex searchIndex;
+
+	private List<UserEntity> table;
+
+	@BeforeEach
+	void setUp() {
+		table = List.of(
+				user(1, "hmurphey0@smugmug.com", "Hamish", "Murphey"),
+				user(2, "gstilldale1@artisteer.com", "Gustaf", "Stilldale"),
+				user(3, "jperez@gmail.com", "José", "Pérez"),
+				user(4, "pepe@pepe.com", "Pepe", "Perezoso"),
+				user(5, "ana@gmail.com", "Ana", "Martínez López"));
+		doAnswer(invocation -> {
+			Consumer<UserEntity> action = invocation.getArgument(0);
+			table.forEach(action);
+			return null;
+		}).when(userRepository).forEachSearchableUser(any());
+
+		searchIndex = new UserSearchIndex(userRepository);
+		searchIndex.afterSingletonsInstantiated();
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	private static UserEntity user(int id, String email, String name, String lastname) {
+		UserEntity user = new UserEntity(email, name, lastname, "calle falsa", "SPAIN");
+		user.setId(id);
+		return user;
+	}
+
+	@Test
+	void exactTokenRanksAbovePrefix_test() {
+
+		UserSearchIndex.Hits hits = searchIndex.search("Perez", 0, 10);
+
+		assertThat(hits.getIds()).containsExactly(3, 4);
+		assertThat(hits.getTotal()).isEqualTo(2);
+	}
+
+	@Test
+	void searchIgnoresCaseAndAccents_test() {
+
+		assertThat(searchIndex.search("JOSE", 0, 10).getIds()).containsExactly(3);
+		assertThat(searchIndex.search("lópez", 0, 10).getIds()).containsExactly(5);
+	}
+
+	@Test
+	void everyTermHasToMatch_test() {
+
+		assertThat(searchIndex.search("pepe pere", 0, 10).getIds()).containsExactly(4);
+		assertThat(searchIndex.search("ana gmail", 0, 10).getIds()).containsExactly(5);
+		assertThat(searchIndex.search("ana smugmug", 0, 10).getTotal()).isZero();
+	}
+
+	@Test
+	void misspeltTermMatchesFuzzily_test() {
+
+		assertThat(searchIndex.search("murfey", 0, 10).getIds()).containsExactly(1);
+		assertThat(searchIndex.search("stildale", 0, 10).getIds()).containsExactly(2);
+	}
+
+	@Test
+	void searchPagesThroughRanking_test() {
+
+		UserSearchIndex.Hits hits = searchIndex.search("gmail", 1, 1);
+
+		assertThat(hits.getIds()).containsExactly(5);
+		assertThat(hits.getTotal()).isEqualTo(2);
+		assertThat(searchIndex.search("gmail", 2, 1).getIds()).isEmpty();
+	}
+
+	@Test
+	void changesWaitForCommit_test() {
+
+		TransactionSynchronizationManager.initSynchronization();
+		searchIndex.indexed(user(6, "lucia@gmail.com", "Lucía", "Pérez"));
+		searchIndex.removed(3);
+
+		assertThat(searchIndex.search("perez", 0, 10).getIds()).containsExactly(3, 4);
+
+		for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+			synchronization.afterCommit();
+		}
+
+		assertThat(searchIndex.search("perez", 0, 10).getIds()).containsExactly(6, 4);
+	}
+
+	@Test
+	void updateReplacesTokens_test() {
+
+		searchIndex.indexed(user(1, "hamish@smugmug.com", "Hamish", "Smith"));
+
+		assertThat(searchIndex.search("murphey", 0, 10).getTotal()).isZero();
+		assertThat(searchIndex.search("smith", 0, 10).getIds()).containsExactly(1);
+	}
+
+	@Test
+	void updateByEmailFindsIndexedUser_test() {
+
+		searchIndex.indexedByEmail(List.of(new UserEntity("pepe@pepe.com", "Pepe", "Garcia", "calle falsa", "SPAIN"),
+				new UserEntity("unknown@pepe.com", "Pepe", "Garcia", "calle falsa", "SPAIN")));
+
+		assertThat(searchIndex.search("garcia", 0, 10).getIds()).containsExactly(4);
+	}
+
+	@Test
+	void clearEmptiesIndex_test() {
+
+		assertThat(searchIndex.size()).isEqualTo(5);
+
+		searchIndex.cleared();
+
+		assertThat(searchIndex.search("gmail", 0, 10).getTotal()).isZero();
+		assertThat(searchIndex.size()).isZero();
+	}
+
+}
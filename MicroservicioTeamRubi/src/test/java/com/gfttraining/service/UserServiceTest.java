@@ -6,47 +6,77 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
-import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
 import javax.persistence.EntityNotFoundException;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.data.crossstore.ChangeSetPersister.NotFoundException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gfttraining.DTO.FavoriteChangesDTO;
+import com.gfttraining.DTO.LoyaltySummaryDTO;
 import com.gfttraining.DTO.Mapper;
+import com.gfttraining.DTO.ProductFavoritesDTO;
 import com.gfttraining.DTO.UserEntityDTO;
-import com.gfttraining.connection.RetrieveInformationFromExternalMicroservice;
+import com.gfttraining.DTO.UserPageDTO;
+import com.gfttraining.DTO.UserStatsDTO;
+import com.gfttraining.connection.CartServiceClient;
+import com.gfttraining.connection.ProductCatalogClient;
 import com.gfttraining.entity.CartEntity;
 import com.gfttraining.entity.FavoriteProduct;
 import com.gfttraining.entity.ProductEntity;
 import com.gfttraining.entity.UserEntity;
+import com.gfttraining.exception.CartServiceUnavailableException;
 import com.gfttraining.exception.DuplicateEmailException;
 import com.gfttraining.exception.DuplicateFavoriteException;
 import com.gfttraining.repository.FavoriteRepository;
@@ -66,8 +96,6 @@ class UserServiceTest {
 	@Mock
 	private UserEntityDTO userEntityDTO;
 
-	@Mock
-	private RetrieveInformationFromExternalMicroservice retrieveInformationFromExternalMicroservice;
 	
 	@Autowired
 	@Mock
@@ -85,12 +113,46 @@ class UserServiceTest {
 		userModel = new UserEntity("pepe@pepe.com", "Pepito", "Perez", "calle falsa", "SPAIN");
 		userModel2 = Optional
 				.of(new UserEntity("pepe@pepe.com", "Pepito", "Perez", "calle falsa", "SPAIN"));
-		userEntityDTO = new UserEntityDTO(12, "pepe@pepe.com", "Pepito", "Perez", "calle falsa", "SPAIN", "TRANSFERENCIA", BigDecimal.valueOf(0), 0, null);
+		userEntityDTO = new UserEntityDTO(12, "pepe@pepe.com", "Pepito", "Perez", "calle falsa", "SPAIN", "TRANSFERENCIA", BigDecimal.valueOf(0), 0, null, true);
 	}
 
 	@Mock
 	private FavoriteRepository favoriteRepository;
 
+	@Mock
+	private CartServiceClient cartServiceClient;
+
+	@Mock
+	private ProductCatalogClient productCatalogClient;
+
+	@Mock
+	private FavoriteLeaderboard favoriteLeaderboard;
+
+	@Mock
+	private UserSearchIndex userSearchIndex;
+
+	@Mock
+	private UserStatsCache userStatsCache;
+
+	@Mock
+	private TransactionTemplate transactionTemplate;
+
+	private void runTransactionsInline() {
+		when(transactionTemplate.execute(any())).thenAnswer(invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+	}
+
+	@Spy
+	private EmailFilter emailFilter = new EmailFilter(null, 1000, 0.01);
+
+	@Spy
+	private FidelityPointsEngine fidelityPointsEngine = new FidelityPointsEngine(new FidelityProperties());
+
+	@Mock
+	private EntityManager entityManager;
+
+	@Spy
+	private LoyaltyCache loyaltyCache = new LoyaltyCache(100, Duration.ofMinutes(10));
+
 	@Test
 	void getUserById_test() {
 
@@ -157,16 +219,165 @@ class UserServiceTest {
 	}
 
 	@Test
-	void getAllUsers() {
+	void findPage_test() {
+
 		List<UserEntity> expectedUsers = new ArrayList<>();
-		expectedUsers.add(userModel);
-		expectedUsers.add(userModel);
+		for (int id = 1; id <= 3; id++) {
+			UserEntity user = new UserEntity("pepe" + id + "@pepe.com", "Pepito", "Perez", "calle falsa", "SPAIN");
+			user.setId(id);
+			expectedUsers.add(user);
+		}
+
+		when(repository.findIdsAfter(0, PageRequest.of(0, 3))).thenReturn(List.of(1, 2, 3));
+		when(repository.findAllWithFavoritesByIdIn(List.of(1, 2))).thenReturn(expectedUsers.subList(0, 2));
+
+		UserPageDTO page = userService.findPage(null, 2, false);
+
+		assertThat(page.getUsers()).containsExactly(expectedUsers.get(0), expectedUsers.get(1));
+		assertThat(KeysetCursor.decode(page.getNext())).isEqualTo(2);
+		assertThat(page.getTotal()).isNull();
+	}
+
+	@Test
+	void findLastPageWithTotal_test() {
+
+		userModel.setId(7);
+
+		when(repository.findIdsAfter(5, PageRequest.of(0, 11))).thenReturn(List.of(7));
+		when(repository.findAllWithFavoritesByIdIn(List.of(7))).thenReturn(List.of(userModel));
+		when(repository.count()).thenReturn(7L);
+
+		UserPageDTO page = userService.findPage(KeysetCursor.encode(5), 10, true);
+
+		assertThat(page.getUsers()).containsExactly(userModel);
+		assertThat(page.getNext()).isNull();
+		assertThat(page.getTotal()).isEqualTo(7L);
+	}
+
+	@Test
+	void findEmptyPage_test() {
+
+		when(repository.findIdsAfter(7, PageRequest.of(0, 11))).thenReturn(List.of());
+
+		UserPageDTO page = userService.findPage(KeysetCursor.encode(7), 10, false);
+
+		assertThat(page.getUsers()).isEmpty();
+		assertThat(page.getNext()).isNull();
+		verify(repository, never()).findAllWithFavoritesByIdIn(anyCollection());
+	}
+
+	@Test
+	void findUsersByFavoriteProduct_test() {
+
+		userModel.setId(4);
+
+		when(favoriteRepository.findUserIdsByProductIdAfter(3, 2, PageRequest.of(0, 2))).thenReturn(List.of(4, 9));
+		when(repository.findAllWithFavoritesByIdIn(List.of(4))).thenReturn(List.of(userModel));
+		when(favoriteRepository.countByProductId(3)).thenReturn(5L);
+
+		UserPageDTO page = userService.findUsersByFavoriteProduct(3, KeysetCursor.encode(2), 1, true);
+
+		assertThat(page.getUsers()).containsExactly(userModel);
+		assertThat(KeysetCursor.decode(page.getNext())).isEqualTo(4);
+		assertThat(page.getTotal()).isEqualTo(5L);
+	}
+
+	@Test
+	void findUsersByFavoriteProductWithInvalidLimit_test() {
+
+		assertThatThrownBy(() -> userService.findUsersByFavoriteProduct(3, null, 0, false))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("limit must be between 1 and");
+	}
+
+	@Test
+	void searchUsers_test() {
+
+		userModel.setId(4);
+		UserEntity otherUser = new UserEntity("juan@pepe.com", "Juan", "Perez", "calle falsa", "SPAIN");
+		otherUser.setId(9);
+
+		when(userSearchIndex.size()).thenReturn(10);
+		when(userSearchIndex.search("pe", 2, 2)).thenReturn(new UserSearchIndex.Hits(List.of(9, 4), 5));
+		when(repository.findAllWithFavoritesByIdIn(List.of(9, 4))).thenReturn(List.of(userModel, otherUser));
+
+		UserPageDTO page = userService.searchUsers("pe", KeysetCursor.encode(2), 2);
+
+		assertThat(page.getUsers()).containsExactly(otherUser, userModel);
+		assertThat(KeysetCursor.decode(page.getNext())).isEqualTo(4);
+		assertThat(page.getTotal()).isEqualTo(5L);
+	}
 
-		when(repository.findAll()).thenReturn(expectedUsers);
+	@Test
+	void searchUsersPastTheEnd_test() {
+
+		when(userSearchIndex.size()).thenReturn(10);
+		when(userSearchIndex.search("pe", 10, 20)).thenReturn(new UserSearchIndex.Hits(List.of(), 5));
+
+		// offset + limit would overflow int and wrap to a negative cursor
+		UserPageDTO page = userService.searchUsers("pe", KeysetCursor.encode(Integer.MAX_VALUE - 10), 20);
+
+		assertThat(page.getUsers()).isEmpty();
+		assertThat(page.getNext()).isNull();
+		assertThat(page.getTotal()).isEqualTo(5L);
+	}
+
+	@Test
+	void searchUsersWithoutMatches_test() {
+
+		when(userSearchIndex.search("zz", 0, 20)).thenReturn(new UserSearchIndex.Hits(List.of(), 0));
+
+		UserPageDTO page = userService.searchUsers("zz", null, 20);
+
+		assertThat(page.getUsers()).isEmpty();
+		assertThat(page.getNext()).isNull();
+		assertThat(page.getTotal()).isZero();
+		verify(repository, never()).findAllWithFavoritesByIdIn(anyCollection());
+	}
+
+	@Test
+	void searchUsersWithBlankQuery_test() {
+
+		assertThatThrownBy(() -> userService.searchUsers(" ", null, 20))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("query cannot be blank");
+	}
+
+	@Test
+	void getUserStats_test() {
+
+		UserStatsDTO stats = new UserStatsDTO(3, Map.of("SPAIN", 3L), Map.of("VISA", 2L, UserStatsDTO.NO_PAYMENT_METHOD, 1L), null);
+		when(userStatsCache.get()).thenReturn(stats);
+
+		assertThat(userService.getUserStats()).isSameAs(stats);
+	}
+
+	@Test
+	void findPageWithInvalidCursor_test() {
+
+		assertThatThrownBy(() -> userService.findPage("not a cursor", 10, false))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("Invalid cursor");
+	}
+
+	@Test
+	void findPageWithNonNumericCursor_test() {
+
+		// valid Base64 of "abc"
+		assertThatThrownBy(() -> userService.findPage("YWJj", 10, false))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("Invalid cursor YWJj");
+		verify(repository, never()).findIdsAfter(anyInt(), any());
+	}
 
-		List<UserEntity> actualUsers = userService.findAll();
+	@Test
+	void findPageWithNegativeCursor_test() {
 
-		assertEquals(expectedUsers, actualUsers);
+		// "-1", which encode never produces
+		assertThatThrownBy(() -> userService.findPage("LTE", 10, false))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("Invalid cursor LTE");
+		verify(repository, never()).findIdsAfter(anyInt(), any());
 	}
 
 	@Test
@@ -195,15 +406,33 @@ class UserServiceTest {
 	@Test
 	void deleteUserById_test() {
 
+		when(repository.deleteByIdWithFavorites(1)).thenReturn(Optional.of(userModel));
+
 		userService.deleteUserById(1);
 
-		verify(repository, times(1)).deleteById(1);
+		verify(repository, times(1)).deleteByIdWithFavorites(1);
+		verify(repository, never()).findById(1);
+		verify(loyaltyCache, times(1)).invalidate(1);
+		verify(emailFilter, times(1)).removed("pepe@pepe.com");
+		verify(userSearchIndex, times(1)).removed(1);
+	}
+
+	@Test
+	void deleteUserByIdRemovesItsFavoritesFromLeaderboard_test() {
+
+		userModel.addFavorite(new FavoriteProduct(1, 5));
+		userModel.addFavorite(new FavoriteProduct(1, 7));
+		when(repository.deleteByIdWithFavorites(1)).thenReturn(Optional.of(userModel));
+
+		userService.deleteUserById(1);
+
+		verify(favoriteLeaderboard, times(1)).removed(List.of(5, 7));
 	}
 
 	@Test
 	void deleteUserByIdNotFound_test() {
 
-		doThrow(EmptyResultDataAccessException.class).when(repository).deleteById(1234);
+		when(repository.deleteByIdWithFavorites(1234)).thenReturn(Optional.empty());
 
 		EntityNotFoundException exception = assertThrows(EntityNotFoundException.class, () -> {
 			userService.deleteUserById(1234);
@@ -225,27 +454,48 @@ class UserServiceTest {
 	void updateUserById_test() {
 
 		userModel.setId(1);
+		userModel.setName("Jose");
 
 		UserEntity updatedUser = new UserEntity();
 		updatedUser.setName("Jose");
 
-		when(repository.findById(1)).thenReturn(Optional.of(userModel));
-		when(repository.save(userModel)).thenReturn(userModel);
+		when(repository.updateSuppliedColumns(1, updatedUser)).thenReturn(Optional.of(userModel));
+		when(favoriteRepository.findByUserId(1)).thenReturn(List.of(new FavoriteProduct(1, 7)));
 
 		UserEntity result = userService.updateUserById(1, updatedUser);
 
-		verify(repository, times(1)).findById(1);
-		verify(repository, times(1)).save(userModel);
+		verify(repository, times(1)).updateSuppliedColumns(1, updatedUser);
+		verify(repository, never()).save(any());
 		assertThat(updatedUser.getName()).isEqualTo(result.getName());
+		assertThat(result.getFavorites()).containsExactly(new FavoriteProduct(1, 7));
 
 	}
 
+	@Test
+	void updateUserByIdWithNewEmail_test() {
+
+		emailFilter.added("pepe@pepe.com");
+		UserEntity changes = new UserEntity();
+		changes.setEmail("jose@pepe.com");
+		UserEntity updatedUser = new UserEntity("jose@pepe.com", "Pepito", "Perez", "calle falsa", "SPAIN");
+		updatedUser.setId(1);
+
+		when(repository.updateSuppliedColumns(1, changes)).thenReturn(Optional.of(updatedUser));
+
+		userService.updateUserById(1, changes);
+
+		assertThat(emailFilter.mightContain("jose@pepe.com")).isTrue();
+		// the previous email stays until the filter is reloaded, the update does not read the user first
+		assertThat(emailFilter.mightContain("pepe@pepe.com")).isTrue();
+		verify(repository, never()).findById(anyInt());
+	}
+
 	@Test
 	void updateUserByIdNoValidId_test() {
 
-		when(repository.findById(anyInt())).thenReturn(Optional.empty());
+		when(repository.updateSuppliedColumns(1, userModel)).thenReturn(Optional.empty());
 
-		assertThatThrownBy(() -> userService.updateUserById(anyInt(), userModel))
+		assertThatThrownBy(() -> userService.updateUserById(1, userModel))
 		.isInstanceOf(ResponseStatusException.class).hasMessageContaining("User not found");
 
 	}
@@ -258,9 +508,7 @@ class UserServiceTest {
 		UserEntity updatedUser = new UserEntity();
 		updatedUser.setName("Jose");
 
-		when(repository.findById(1)).thenReturn(Optional.of(userModel));
-		//when(repository.existsByEmail(anyString())).thenReturn(true);
-		when(repository.save(userModel)).thenReturn(userModel);
+		when(repository.updateSuppliedColumns(1, updatedUser)).thenReturn(Optional.of(userModel));
 
 		UserEntity result = userService.updateUserById(1, updatedUser);
 
@@ -268,9 +516,21 @@ class UserServiceTest {
 
 	}
 
+	@Test
+	void createUserWithNewEmailSkipsDatabaseCheck_test() {
+
+		when(repository.save(userModel)).thenReturn(userModel);
+
+		userService.createUser(userModel);
+
+		verify(repository, never()).existsByEmail(any());
+		assertThat(emailFilter.mightContain("pepe@pepe.com")).isTrue();
+	}
+
 	@Test
 	void createUserWithEmailThatAlreadyExists_test() {
 
+		emailFilter.added("pepe@pepe.com");
 		when(repository.existsByEmail("pepe@pepe.com")).thenReturn(true);
 
 		assertThatThrownBy(() -> userService.createUser(userModel)).isInstanceOf(DuplicateEmailException.class)
@@ -281,14 +541,11 @@ class UserServiceTest {
 	@Test
 	void updateUserByIdWithEmailThatAlreadyExists_test() {
 
-		Optional<UserEntity> newUser = Optional.of(userModel);
+		when(repository.updateSuppliedColumns(1, userModel)).thenThrow(new DuplicateKeyException("Unique index or primary key violation"));
 
-		when(repository.existsByEmail("pepe@pepe.com")).thenReturn(true);
-		when(repository.findById(1)).thenReturn(newUser);
-
-		assertThatThrownBy(() -> userService.updateUserById(1, newUser.get()))
+		assertThatThrownBy(() -> userService.updateUserById(1, userModel))
 		.isInstanceOf(DuplicateEmailException.class)
-		.hasMessageContaining("email " + newUser.get().getEmail() + " is already in use");
+		.hasMessageContaining("email " + userModel.getEmail() + " is already in use");
 
 	}
 
@@ -332,12 +589,12 @@ class UserServiceTest {
 
 		carts.add(cartEntity);
 	
-		when(retrieveInformationFromExternalMicroservice.getExternalInformation("http://localhost:8082/carts/user/" + 12, new ParameterizedTypeReference<List<CartEntity>>() {
-		})).thenReturn(carts);
+		when(cartServiceClient.getCartsAsync(12)).thenReturn(CompletableFuture.completedFuture(carts));
+		when(cartServiceClient.getTimeout()).thenReturn(Duration.ofSeconds(1));
 		
 		when(repository.findById(anyInt())).thenReturn(userModel2);
 
-		when(mapper.toUserWithAvgSpentAndFidelityPoints(userModel, BigDecimal.valueOf(20), 1)).thenReturn(userEntityDTO);
+		when(mapper.toUserWithAvgSpentAndFidelityPoints(userModel, BigDecimal.valueOf(2000, 2), 1)).thenReturn(userEntityDTO);
 		
 		assertThat(0).isEqualTo(userService.getUserWithAvgSpentAndFidelityPoints(12).getPoints());
 
@@ -361,19 +618,154 @@ class UserServiceTest {
 
 		carts.add(cartEntity);
 	
-		when(retrieveInformationFromExternalMicroservice.getExternalInformation("http://localhost:8082/carts/user/" + 12, new ParameterizedTypeReference<List<CartEntity>>() {
-		})).thenReturn(carts);
+		when(cartServiceClient.getCartsAsync(12)).thenReturn(CompletableFuture.completedFuture(carts));
+		when(cartServiceClient.getTimeout()).thenReturn(Duration.ofSeconds(1));
 		
 		when(repository.findById(anyInt())).thenReturn(userModel2);
 		
-		when(mapper.toUserWithAvgSpentAndFidelityPoints(userModel, BigDecimal.valueOf(20), 1)).thenReturn(userEntityDTO);
+		when(mapper.toUserWithAvgSpentAndFidelityPoints(eq(userModel2.get()), any(BigDecimal.class), eq(1))).thenAnswer(invocation -> {
+			userEntityDTO.setAverageSpent(invocation.getArgument(1));
+			return userEntityDTO;
+		});
 		
-		assertThat(BigDecimal.valueOf(20)).isEqualTo(userService.getUserWithAvgSpentAndFidelityPoints(12).getAverageSpent());
+		assertThat(userService.getUserWithAvgSpentAndFidelityPoints(12).getAverageSpent()).isEqualByComparingTo(new BigDecimal("20.00"));
 
 		
 	}
 
 
+	@Test
+	void getCachedLoyaltySummary_test() {
+
+		when(cartServiceClient.getCartsAsync(12)).thenAnswer(invocation -> CompletableFuture.completedFuture(new ArrayList<>()));
+		when(cartServiceClient.getTimeout()).thenReturn(Duration.ofSeconds(1));
+		when(repository.findById(anyInt())).thenReturn(userModel2);
+
+		userService.getUserWithAvgSpentAndFidelityPoints(12);
+		userService.getUserWithAvgSpentAndFidelityPoints(12);
+
+		verify(cartServiceClient, times(1)).getCartsAsync(12);
+		verify(mapper, times(2)).toUserWithAvgSpentAndFidelityPoints(userModel2.get(), BigDecimal.valueOf(0, 2), 0);
+	}
+
+	@Test
+	void evictLoyaltySummary_test() {
+
+		when(cartServiceClient.getCartsAsync(12)).thenAnswer(invocation -> CompletableFuture.completedFuture(new ArrayList<>()));
+		when(cartServiceClient.getTimeout()).thenReturn(Duration.ofSeconds(1));
+		when(repository.findById(anyInt())).thenReturn(userModel2);
+
+		userService.getUserWithAvgSpentAndFidelityPoints(12);
+		userService.evictLoyaltySummary(12);
+		userService.getUserWithAvgSpentAndFidelityPoints(12);
+
+		verify(loyaltyCache).invalidate(12);
+		verify(cartServiceClient, times(2)).getCartsAsync(12);
+	}
+
+	@Test
+	void getLoyaltySummaryOfMissingUser_test() {
+
+		CompletableFuture<List<CartEntity>> carts = new CompletableFuture<>();
+		when(cartServiceClient.getCartsAsync(12)).thenReturn(carts);
+		when(repository.findById(anyInt())).thenReturn(Optional.empty());
+
+		assertThatThrownBy(() -> userService.getUserWithAvgSpentAndFidelityPoints(12))
+		.isInstanceOf(EntityNotFoundException.class);
+		assertThat(carts).isCancelled();
+	}
+
+	@Test
+	void getLoyaltySummaryOfMissingUserWhileAnotherCallerWaits_test() throws Exception {
+
+		userModel.setId(12);
+		UserEntityDTO withoutLoyalty = new UserEntityDTO(12, "pepe@pepe.com", "Pepito", "Perez", "calle falsa", "SPAIN", null, null, 0, null, false);
+		CompletableFuture<List<CartEntity>> carts = new CompletableFuture<>();
+		when(cartServiceClient.getCartsAsync(12)).thenReturn(carts);
+		when(cartServiceClient.getTimeout()).thenReturn(Duration.ofSeconds(10));
+		when(repository.findAllWithFavoritesByIdIn(Set.of(12))).thenReturn(List.of(userModel));
+		when(mapper.toUserWithoutLoyalty(userModel)).thenReturn(withoutLoyalty);
+		when(repository.findById(12)).thenReturn(Optional.empty());
+
+		// the first caller read the user before it was deleted and waits on the shared summary
+		CompletableFuture<List<UserEntityDTO>> waiting = CompletableFuture.supplyAsync(
+				() -> userService.getUsersWithAvgSpentAndFidelityPoints(List.of(12)));
+		verify(cartServiceClient, timeout(1000)).getCartsAsync(12);
+
+		assertThatThrownBy(() -> userService.getUserWithAvgSpentAndFidelityPoints(12))
+		.isInstanceOf(EntityNotFoundException.class);
+
+		assertThat(waiting.get(1, TimeUnit.SECONDS)).containsExactly(withoutLoyalty);
+		assertThat(carts).isCancelled();
+		verify(cartServiceClient, times(1)).getCartsAsync(12);
+	}
+
+	@Test
+	void getLoyaltySummaryWithUnavailableCarts_test() {
+
+		when(cartServiceClient.getCartsAsync(12)).thenReturn(CompletableFuture.failedFuture(
+				new ResponseStatusException(HttpStatus.NOT_FOUND, "Couldn't connect with the microservice")));
+		when(cartServiceClient.getTimeout()).thenReturn(Duration.ofSeconds(1));
+		when(repository.findById(anyInt())).thenReturn(userModel2);
+
+		assertThatThrownBy(() -> userService.getUserWithAvgSpentAndFidelityPoints(12))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("Couldn't connect");
+	}
+
+	@Test
+	void getLoyaltySummaryWithOpenCircuit_test() {
+
+		UserEntityDTO unavailable = new UserEntityDTO(12, "pepe@pepe.com", "Pepito", "Perez", "calle falsa", "SPAIN", null, null, 0, null, false);
+		when(cartServiceClient.getCartsAsync(12)).thenReturn(CompletableFuture.failedFuture(
+				new CartServiceUnavailableException("Cart service circuit breaker is OPEN")));
+		when(cartServiceClient.getTimeout()).thenReturn(Duration.ofSeconds(1));
+		when(repository.findById(anyInt())).thenReturn(userModel2);
+		when(mapper.toUserWithoutLoyalty(userModel2.get())).thenReturn(unavailable);
+
+		assertThat(userService.getUserWithAvgSpentAndFidelityPoints(12).isLoyaltyAvailable()).isFalse();
+	}
+
+	@Test
+	void getUsersWithAvgSpentAndFidelityPoints_test() {
+
+		UserEntity cachedUser = new UserEntity("ana@ana.com", "Ana", "Lopez", "calle real", "SPAIN");
+		cachedUser.setId(1);
+		UserEntity fetchedUser = new UserEntity("luis@luis.com", "Luis", "Gil", "calle mayor", "SPAIN");
+		fetchedUser.setId(2);
+		UserEntity slowUser = new UserEntity("eva@eva.com", "Eva", "Ruiz", "calle nueva", "SPAIN");
+		slowUser.setId(3);
+		UserEntityDTO unavailable = new UserEntityDTO(3, "eva@eva.com", "Eva", "Ruiz", "calle nueva", "SPAIN", null, null, 0, null, false);
+
+		loyaltyCache.get(1, id -> CompletableFuture.completedFuture(new LoyaltySummaryDTO(BigDecimal.valueOf(40), 3)));
+		when(repository.findAllWithFavoritesByIdIn(any())).thenReturn(Arrays.asList(cachedUser, fetchedUser, slowUser));
+		when(cartServiceClient.getTimeout()).thenReturn(Duration.ofMillis(50));
+		when(cartServiceClient.getCartsAsync(2)).thenReturn(CompletableFuture.completedFuture(new ArrayList<>()));
+		when(cartServiceClient.getCartsAsync(3)).thenReturn(new CompletableFuture<>());
+		when(mapper.toUserWithAvgSpentAndFidelityPoints(cachedUser, BigDecimal.valueOf(40), 3)).thenReturn(userEntityDTO);
+		when(mapper.toUserWithAvgSpentAndFidelityPoints(fetchedUser, BigDecimal.valueOf(0, 2), 0)).thenReturn(userEntityDTO);
+		when(mapper.toUserWithoutLoyalty(slowUser)).thenReturn(unavailable);
+
+		List<UserEntityDTO> summaries = userService.getUsersWithAvgSpentAndFidelityPoints(Arrays.asList(1, 2, 3, 4, 2));
+
+		assertThat(summaries).containsExactly(userEntityDTO, userEntityDTO, unavailable);
+		verify(cartServiceClient, times(0)).getCartsAsync(1);
+		assertThat(loyaltyCache.get(2, id -> new CompletableFuture<>())).isCompletedWithValue(new LoyaltySummaryDTO(BigDecimal.valueOf(0, 2), 0));
+	}
+
+	@Test
+	void getUsersWithAvgSpentAndFidelityPointsWithTooManyIds_test() {
+
+		List<Integer> ids = new ArrayList<>();
+		for (int i = 0; i <= UserService.MAX_SUMMARY_SIZE; i++) {
+			ids.add(i);
+		}
+
+		assertThatThrownBy(() -> userService.getUsersWithAvgSpentAndFidelityPoints(ids))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("user ids are required");
+	}
+
 	@Test
 	void addFavoriteProduct_test() {
 
@@ -383,15 +775,14 @@ class UserServiceTest {
 
 		when(repository.findById(anyInt())).thenReturn(Optional.of(userModel));
 
-		when(favoriteRepository.existsByUserIdAndProductId(anyInt(), anyInt())).thenReturn(false);
-
-		when(favoriteRepository.save(any(FavoriteProduct.class))).thenReturn(favorite);
+		when(favoriteRepository.insertAllIfAbsent(List.of(favorite))).thenReturn(new int[] {1});
 
 		UserEntity user = userService.addFavoriteProduct(1, 5);
 
 		assertThat(user).isEqualTo(userModel);
-		verify(favoriteRepository, atLeastOnce()).save(favorite);
+		verify(favoriteRepository, atLeastOnce()).insertAllIfAbsent(List.of(favorite));
 		verify(repository, atLeastOnce()).findById(1);
+		verify(favoriteLeaderboard, times(1)).added(List.of(5));
 
 	}
 
@@ -415,23 +806,92 @@ class UserServiceTest {
 
 		when(repository.findById(anyInt())).thenReturn(Optional.of(userModel));
 
-		when(favoriteRepository.existsByUserIdAndProductId(anyInt(), anyInt())).thenReturn(true);
+		when(favoriteRepository.insertAllIfAbsent(List.of(new FavoriteProduct(userId, productId)))).thenReturn(new int[] {0});
 
 		assertThatThrownBy(()-> userService.addFavoriteProduct(userId,productId))
 		.isInstanceOf(DuplicateFavoriteException.class)
 		.hasMessageContaining("Product with id " + productId + " is already favorite for user with id " + userId);
+		verify(favoriteLeaderboard, never()).added(any());
+
+	}
+
+	@Test
+	void addFavoriteProducts_test() {
+
+		runTransactionsInline();
+		when(productCatalogClient.missingProducts(List.of(5, 6, 7))).thenReturn(List.of());
+		when(favoriteRepository.insertAllIfAbsent(List.of(new FavoriteProduct(1, 5), new FavoriteProduct(1, 6), new FavoriteProduct(1, 7))))
+		.thenReturn(new int[] {1, 0, 1});
+
+		FavoriteChangesDTO changes = userService.addFavoriteProducts(1, List.of(5, 6, 5, 7));
+
+		assertThat(changes).isEqualTo(new FavoriteChangesDTO(1, List.of(5, 7), List.of(6)));
+		// the products are checked before the transaction opens, not while it holds a connection
+		InOrder order = inOrder(productCatalogClient, transactionTemplate, favoriteRepository);
+		order.verify(productCatalogClient, times(1)).missingProducts(List.of(5, 6, 7));
+		order.verify(transactionTemplate).execute(any());
+		order.verify(favoriteRepository).insertAllIfAbsent(any());
+
+	}
+
+	@Test
+	void addFavoriteProductsWithNotExistingProducts_test() {
+
+		when(productCatalogClient.missingProducts(List.of(5, 6))).thenReturn(List.of(6));
+
+		assertThatThrownBy(()-> userService.addFavoriteProducts(1, List.of(5, 6)))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("Products with ids [6] not found");
+		verify(transactionTemplate, never()).execute(any());
+		verify(favoriteRepository, never()).insertAllIfAbsent(any());
+
+	}
+
+	@Test
+	void addFavoriteProductsWithNotExistingUser_test() {
+
+		runTransactionsInline();
+		when(productCatalogClient.missingProducts(List.of(5))).thenReturn(List.of());
+		when(favoriteRepository.insertAllIfAbsent(List.of(new FavoriteProduct(600, 5))))
+		.thenThrow(new DataIntegrityViolationException("Referential integrity constraint violation"));
+
+		assertThatThrownBy(()-> userService.addFavoriteProducts(600, List.of(5)))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("User with id 600 not found");
+
+	}
+
+	@Test
+	void deleteFavoriteProducts_test() {
+
+		when(favoriteRepository.deleteAllByUserAndProduct(List.of(new FavoriteProduct(1, 5), new FavoriteProduct(1, 6))))
+		.thenReturn(new int[] {0, 1});
+
+		FavoriteChangesDTO changes = userService.deleteFavoriteProducts(1, List.of(5, 6));
+
+		assertThat(changes).isEqualTo(new FavoriteChangesDTO(1, List.of(6), List.of(5)));
+		verify(favoriteLeaderboard, times(1)).removed(List.of(6));
+
+	}
+
+	@Test
+	void deleteFavoriteProductsWithEmptyList_test() {
+
+		assertThatThrownBy(()-> userService.deleteFavoriteProducts(1, List.of()))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("Between 1 and " + UserService.MAX_FAVORITE_BATCH_SIZE + " product ids are required");
 
 	}
 
 	@Test
 	void deleteFavoriteProduct_test() {
 
-		when(favoriteRepository.existsByUserIdAndProductId(anyInt(), anyInt())).thenReturn(true);
+		when(favoriteRepository.deleteByUserIdAndProductId(anyInt(), anyInt())).thenReturn(1);
 
 		userService.deleteFavoriteProduct(1, 5);
 
-		verify(favoriteRepository, atLeastOnce()).existsByUserIdAndProductId(1, 5);
 		verify(favoriteRepository, atLeastOnce()).deleteByUserIdAndProductId(1, 5);
+		verify(favoriteLeaderboard, times(1)).removed(List.of(5));
 	}
 
 	@Test
@@ -440,7 +900,7 @@ class UserServiceTest {
 		int userId = 1;
 		int productId = 5;
 
-		when(favoriteRepository.existsByUserIdAndProductId(anyInt(), anyInt())).thenReturn(false);
+		when(favoriteRepository.deleteByUserIdAndProductId(anyInt(), anyInt())).thenReturn(0);
 
 		assertThatThrownBy(()-> userService.deleteFavoriteProduct(userId,productId))
 		.isInstanceOf(EmptyResultDataAccessException.class)
@@ -453,12 +913,12 @@ class UserServiceTest {
 
 		int productId = 5;
 
-		when(favoriteRepository.existsByProductId(anyInt())).thenReturn(true);
+		when(favoriteRepository.deleteByProductId(anyInt())).thenReturn(3);
 
 		userService.deleteFavoriteProductFromAllUsers(productId);
 
-		verify(favoriteRepository, atLeastOnce()).existsByProductId(productId);
 		verify(favoriteRepository, atLeastOnce()).deleteByProductId(productId);
+		verify(favoriteLeaderboard, times(1)).productRemoved(productId);
 	}
 
 	@Test
@@ -466,7 +926,7 @@ class UserServiceTest {
 
 		int productId = 5;
 
-		when(favoriteRepository.existsByProductId(anyInt())).thenReturn(false);
+		when(favoriteRepository.deleteByProductId(anyInt())).thenReturn(0);
 
 		assertThatThrownBy(()-> userService.deleteFavoriteProductFromAllUsers(productId))
 		.isInstanceOf(EmptyResultDataAccessException.class)
@@ -474,5 +934,105 @@ class UserServiceTest {
 
 	}
 
+	@Test
+	void getTopFavoriteProducts_test() {
+
+		List<ProductFavoritesDTO> top = List.of(new ProductFavoritesDTO(5, 3), new ProductFavoritesDTO(2, 1));
+		when(favoriteLeaderboard.top(2)).thenReturn(top);
+
+		assertThat(userService.getTopFavoriteProducts(2)).isEqualTo(top);
+	}
+
+	@Test
+	void getTopFavoriteProductsWithInvalidSize_test() {
+
+		assertThatThrownBy(()-> userService.getTopFavoriteProducts(UserService.MAX_TOP_SIZE + 1))
+		.isInstanceOf(ResponseStatusException.class)
+		.hasMessageContaining("n must be between 1 and " + UserService.MAX_TOP_SIZE);
+		verify(favoriteLeaderboard, never()).top(anyInt());
+	}
+
+	// a real ObjectMapper, copy() refuses to copy a Mockito spy
+	private UserService exportingUserService() {
+		return new UserService(repository, favoriteRepository, mapper, new ObjectMapper(), entityManager, loyaltyCache, cartServiceClient,
+				fidelityPointsEngine, productCatalogClient, favoriteLeaderboard, emailFilter, userSearchIndex, userStatsCache, transactionTemplate);
+	}
+
+	private static UserEntity exportedUser(int id, Integer... productIds) {
+		UserEntity user = new UserEntity("user" + id + "@pepe.com", "Pepito", "Perez", "calle falsa", "SPAIN");
+		user.setId(id);
+		for (Integer productId : productIds) {
+			user.addFavorite(new FavoriteProduct(id, productId));
+		}
+		return user;
+	}
+
+	private static List<JsonNode> lines(ByteArrayOutputStream out) throws Exception {
+		ObjectMapper objectMapper = new ObjectMapper();
+		List<JsonNode> lines = new ArrayList<>();
+		for (String line : out.toString().split("\n")) {
+			lines.add(objectMapper.readTree(line));
+		}
+		return lines;
+	}
+
+	@Test
+	void exportUsers_test() throws Exception {
+
+		UserEntity first = exportedUser(1, 7);
+		UserEntity second = exportedUser(2);
+		AtomicBoolean closed = new AtomicBoolean();
+		when(repository.streamAll()).thenReturn(Stream.of(first, second).onClose(() -> closed.set(true)));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		exportingUserService().exportUsers(out, false);
+
+		assertThat(out.toString()).endsWith("}\n");
+		List<JsonNode> lines = lines(out);
+		assertThat(lines).extracting(line -> line.get("email").asText()).containsExactly("user1@pepe.com", "user2@pepe.com");
+		assertThat(lines).allSatisfy(line -> assertThat(line.has("favorites")).isFalse());
+		assertThat(closed).isTrue();
+		InOrder inOrder = inOrder(entityManager);
+		inOrder.verify(entityManager).detach(first);
+		inOrder.verify(entityManager).detach(second);
+		verify(repository, never()).streamAllWithFavorites();
+	}
+
+	@Test
+	void exportUsersWithFavorites_test() throws Exception {
+
+		when(repository.streamAllWithFavorites()).thenReturn(Stream.of(exportedUser(1, 7)));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		exportingUserService().exportUsers(out, true);
+
+		JsonNode line = lines(out).get(0);
+		assertThat(line.get("favorites")).hasSize(1);
+		assertThat(line.get("favorites").get(0).get("productId").asInt()).isEqualTo(7);
+		verify(repository, never()).streamAll();
+	}
+
+	@Test
+	void exportUsersFlushesEveryInterval_test() throws Exception {
+
+		int users = 2 * UserService.EXPORT_FLUSH_INTERVAL + 1;
+		when(repository.streamAll()).thenReturn(IntStream.rangeClosed(1, users).mapToObj(UserServiceTest::exportedUser));
+		// the lines the client has received each time the response is flushed
+		List<Long> flushedLines = new ArrayList<>();
+		ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				flushedLines.add(toString().chars().filter(c -> c == '\n').count());
+			}
+		};
+
+		exportingUserService().exportUsers(out, false);
+
+		// the last flush comes from closing the generator
+		assertThat(flushedLines).containsExactly((long) UserService.EXPORT_FLUSH_INTERVAL, (long) 2 * UserService.EXPORT_FLUSH_INTERVAL, (long) users);
+		assertThat(lines(out).stream().map(line -> line.get("id").asInt()).collect(Collectors.toList()))
+		.isEqualTo(IntStream.rangeClosed(1, users).boxed().collect(Collectors.toList()));
+		verify(entityManager, times(users)).detach(any(UserEntity.class));
+	}
 
 }
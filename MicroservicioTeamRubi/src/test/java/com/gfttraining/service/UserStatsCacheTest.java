@@ -0,0 +1,99 @@
+package com.gfttraining.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.gfttraining.DTO.UserStatsDTO;
+import com.gfttraining.repository.UserRepository;
+
+@ExtendWith(MockitoExtension.class)
+class UserStatsCacheTest {
+
+	@Mock
+	private UserRepository userRepository;
+
+	private AtomicLong nanos = new AtomicLong();
+
+	private UserStatsCache userStatsCache;
+
+	@BeforeEach
+	void setUp() {
+		userStatsCache = new UserStatsCache(userRepository, Duration.ofMinutes(1), Duration.ofSeconds(5), nanos::get, Runnable::run);
+	}
+
+	private void advance(Duration duration) {
+		nanos.addAndGet(duration.toNanos());
+	}
+
+	private static UserStatsDTO stats(long spain) {
+		// mutable maps, as the repository builds them
+		return new UserStatsDTO(spain + 1, new TreeMap<>(Map.of("SPAIN", spain, "ITALY", 1L)), new TreeMap<>(Map.of("VISA", spain + 1)), null);
+	}
+
+	@Test
+	void statsAreComputedOnce_test() {
+
+		when(userRepository.countByCountryAndPaymentMethod()).thenReturn(stats(2));
+
+		UserStatsDTO first = userStatsCache.get();
+		UserStatsDTO second = userStatsCache.get();
+
+		assertThat(second).isSameAs(first);
+		assertThat(first.getTotal()).isEqualTo(3);
+		assertThat(first.getComputedAt()).isNotNull();
+		verify(userRepository, times(1)).countByCountryAndPaymentMethod();
+	}
+
+	@Test
+	void cachedCountsAreReadOnly_test() {
+
+		when(userRepository.countByCountryAndPaymentMethod()).thenReturn(stats(2));
+
+		UserStatsDTO cached = userStatsCache.get();
+
+		assertThatThrownBy(() -> cached.getCountries().put("SPAIN", 0L)).isInstanceOf(UnsupportedOperationException.class);
+		assertThatThrownBy(() -> cached.getPaymentMethods().clear()).isInstanceOf(UnsupportedOperationException.class);
+		assertThat(userStatsCache.get().getCountries()).containsEntry("SPAIN", 2L);
+	}
+
+	@Test
+	void staleStatsAreRefreshed_test() {
+
+		when(userRepository.countByCountryAndPaymentMethod()).thenReturn(stats(2), stats(5));
+
+		userStatsCache.get();
+		advance(Duration.ofSeconds(6));
+
+		// the refresh runs on the executor, which here is the calling thread
+		userStatsCache.get();
+
+		assertThat(userStatsCache.get().getCountries()).containsEntry("SPAIN", 5L);
+		verify(userRepository, times(2)).countByCountryAndPaymentMethod();
+	}
+
+	@Test
+	void expiredStatsAreNeverServed_test() {
+
+		when(userRepository.countByCountryAndPaymentMethod()).thenReturn(stats(2), stats(7));
+
+		userStatsCache.get();
+		advance(Duration.ofMinutes(2));
+
+		assertThat(userStatsCache.get().getTotal()).isEqualTo(8);
+	}
+
+}